@@ -236,6 +236,26 @@ var qz = (function() {
                             y: typeof screen !== 'undefined' ? ((screen.availHeight || screen.height) / 2) + (screen.top || screen.availTop || 0) : 0
                         };
 
+                        //binary flavored data is sent ahead of the request, which then only references it
+                        var sending = _qz.tools.sendBinaryPayloads(obj.params);
+                        if (!sending) {
+                            _qz.websocket.connection.sendMessage(obj);
+                            return;
+                        }
+
+                        sending.then(function() {
+                            _qz.websocket.connection.sendMessage(obj);
+                        }, function(err) {
+                            _qz.log.error(err);
+
+                            if (obj.promise != undefined) {
+                                obj.promise.reject(err);
+                                delete _qz.websocket.pendingCalls[obj.uid];
+                            }
+                        });
+                    };
+
+                    _qz.websocket.connection.sendMessage = function(obj) {
                         try {
                             if (obj.call != undefined && obj.signature == undefined && _qz.security.needsSigned(obj.call)) {
                                 var signObj = {
@@ -538,6 +558,14 @@ var qz = (function() {
             printerCallbacks: [],
             /** Calls all functions registered to listen for printer events. */
             callPrinter: function(streamEvent) {
+                // statuses sent together when listening with options.batch
+                if (Array.isArray(streamEvent.events)) {
+                    for(var e = 0; e < streamEvent.events.length; e++) {
+                        _qz.printers.callPrinter(streamEvent.events[e]);
+                    }
+                    return;
+                }
+
                 if (Array.isArray(_qz.printers.printerCallbacks)) {
                     for(var i = 0; i < _qz.printers.printerCallbacks.length; i++) {
                         _qz.printers.printerCallbacks[i](streamEvent);
@@ -792,6 +820,57 @@ var qz = (function() {
                 throw new Error("A connection to QZ has not been established yet");
             },
 
+            /**
+             * Sends each <code>Uint8Array</code> in <code>params</code> using the <code>binary</code> flavor (or type) as a binary
+             * websocket frame, replacing it with the key the request references it by.
+             *
+             * @returns {Promise|null} Resolved once every frame was sent, <code>null</code> if there was nothing to send
+             */
+            sendBinaryPayloads: function(params) {
+                var found = [];
+                (function walk(obj) {
+                    if (obj == null || typeof obj !== 'object' || obj instanceof Uint8Array) { return; }
+                    if (obj.data instanceof Uint8Array && String(obj.flavor || obj.type || "").toUpperCase() === "BINARY") {
+                        found.push(obj);
+                    }
+                    for(var key in obj) {
+                        if (obj.hasOwnProperty(key)) { walk(obj[key]); }
+                    }
+                })(params);
+                if (!found.length) { return null; }
+
+                var sending = _qz.tools.promise(function(resolve, reject) {
+                    if (typeof crypto === 'undefined' || !crypto.subtle) {
+                        reject(new Error("Binary flavor requires SHA-256 support from the Web Crypto API"));
+                    } else {
+                        resolve();
+                    }
+                });
+
+                found.forEach(function(obj) {
+                    var payload = obj.data;
+                    sending = sending.then(function() {
+                        return crypto.subtle.digest("SHA-256", payload);
+                    }).then(function(digest) {
+                        // [version][2 byte key length][key][payload], see BinaryPayloads
+                        var key = _qz.tools.uint8ArrayToHex(new Uint8Array(digest));
+                        var frame = new Uint8Array(3 + key.length + payload.length);
+                        frame[0] = 1;
+                        frame[1] = (key.length >> 8) & 0xFF;
+                        frame[2] = key.length & 0xFF;
+                        for(var i = 0; i < key.length; i++) {
+                            frame[3 + i] = key.charCodeAt(i);
+                        }
+                        frame.set(payload, 3 + key.length);
+
+                        _qz.websocket.connection.send(frame);
+                        obj.data = key;
+                    });
+                });
+
+                return sending;
+            },
+
             uint8ArrayToHex: function(uint8) {
                 return Array.from(uint8)
                     .map(function(i) { return i.toString(16).padStart(2, '0'); })
@@ -846,6 +925,8 @@ var qz = (function() {
                                 case 'HEX':
                                     printData[i].data = _qz.tools.uint8ArrayToHex(printData[i].data);
                                     break;
+                                case 'BINARY':
+                                    break; // sent as a binary frame ahead of the request
                                 default:
                                     throw new Error("Uint8Array conversion to '" + flavor + "' is not supported.");
                             }
@@ -1386,6 +1467,8 @@ var qz = (function() {
              *  @param {null|boolean} [options.jobData=false] Flag indicating if raw spool file content should be return as well as status information (Windows only)
              *  @param {null|number} [options.maxJobData=-1] Maximum number of bytes to returns for raw spooled file content (Windows only)
              *  @param {null|string} [options.flavor="plain"] Flavor of data format returned. Valid flavors are <code>[base64 | hex | plain*]</code> (Windows only)
+             *  @param {null|number} [options.coalesce=0] Milliseconds to wait before reporting a printer or job, reporting only its latest status. Statuses that return to the last one reported are skipped.
+             *  @param {null|boolean} [options.batch=false] Flag indicating if statuses waiting to be reported should be sent together. Callbacks are still called once per status.
              *
              * @memberof qz.printers
              */
@@ -1399,6 +1482,8 @@ var qz = (function() {
                 if (options && options.jobData == true) params.jobData = true;
                 if (options && options.maxJobData) params.maxJobData = options.maxJobData;
                 if (options && options.flavor) params.flavor = options.flavor;
+                if (options && options.coalesce) params.coalesce = options.coalesce;
+                if (options && options.batch == true) params.batch = true;
                 return _qz.websocket.dataPromise('printers.startListening', params);
             },
 
@@ -1423,6 +1508,24 @@ var qz = (function() {
                 return _qz.websocket.dataPromise('printers.clearQueue', options);
             },
 
+            /**
+             * Forget the images stored on a printer by raw jobs using <code>data.options.cache</code>, so they are sent in full next time.
+             * Use after the printer has been reset or its stored graphics have been deleted.
+             *
+             * @param {string|Object} [printer] Name of printer, or an object as returned by <code>config.getPrinter()</code>. Forgets images for all printers if omitted.
+             *
+             * @returns {Promise<null|Error>}
+             * @since 2.2.4
+             *
+             * @memberof qz.printers
+             */
+            clearGraphics: function(printer) {
+                if (typeof printer === 'string') {
+                    printer = { name: printer };
+                }
+                return _qz.websocket.dataPromise('printers.clearGraphics', { printer: printer });
+            },
+
             /**
              * Stop listening for printer status actions.
              *
@@ -1572,7 +1675,8 @@ var qz = (function() {
          *      For <code>[pixel]</code> types, valid formats are <code>[html | image* | pdf]</code>.<p/>
          *      For <code>[raw]</code> types, valid formats are <code>[command* | html | image | pdf]</code>.
          *  @param {string} data.flavor Flavor of data format used. *Default per format<p/>
-         *      For <code>[command]</code> formats, valid flavors are <code>[base64 | file | hex | plain* | xml]</code>.<p/>
+         *      For <code>[command]</code> formats, valid flavors are <code>[base64 | binary | file | hex | plain* | xml]</code>.<p/>
+         *      The <code>[binary]</code> flavor sends <code>Uint8Array</code> data as-is in a binary websocket frame, requires the Web Crypto API.<p/>
          *      For <code>[html]</code> formats, valid flavors are <code>[file* | plain]</code>.<p/>
          *      For <code>[image]</code> formats, valid flavors are <code>[base64 | file*]</code>.<p/>
          *      For <code>[pdf]</code> formats, valid flavors are <code>[base64 | file*]</code>.
@@ -1581,6 +1685,16 @@ var qz = (function() {
          *   @param {number} [data.options.x] Optional with <code>[raw]</code> type + <code>[image]</code> format. The X position of the image.
          *   @param {number} [data.options.y] Optional with <code>[raw]</code> type + <code>[image]</code> format. The Y position of the image.
          *   @param {string|number} [data.options.dotDensity] Optional with <code>[raw]</code> type + <code>[image]</code> format.
+         *   @param {string} [data.options.dithering='none'] Optional with <code>[raw]</code> type + <code>[image]</code> format.
+         *       Dithering used when converting to black and white. Valid values are <code>[none* | bayer | floyd-steinberg | atkinson]</code>.
+         *   @param {string} [data.options.compression='none'] Optional with <code>[raw]</code> type + <code>[image]</code> format and <code>ZPL</code> or <code>ESCPOS</code> language.
+         *       Compression of the graphic data. Valid values are <code>[none* | acs | z64 | auto]</code> for ZPL.
+         *       For ESC/POS <code>raster</code> and <code>graphics</code> image modes, any value but <code>none</code> feeds past blank rows and trims blank columns.
+         *   @param {string} [data.options.imageMode='column'] Optional with <code>[raw]</code> type + <code>[image]</code> format and <code>ESCPOS</code> language.
+         *       Commands used to print the image. Valid values are <code>[column* | raster | graphics]</code>
+         *       (<code>ESC *</code>, <code>GS v 0</code> or <code>GS ( L</code>). <code>dotDensity</code> only applies to <code>column</code>.
+         *   @param {boolean} [data.options.cache=false] Optional with <code>[raw]</code> type + <code>[image]</code> format and <code>ZPL</code> or <code>PGL</code> language.
+         *       Store the image on the printer the first time it is printed and recall it afterwards instead of resending it. See <code>qz.printers.clearGraphics</code>.
          *   @param {number} [data.precision=128] Optional with <code>[raw]</code> type <code>[image]</code> format. Bit precision of the ribbons.
          *   @param {boolean|string|Array<Array<number>>} [data.options.overlay=false] Optional with <code>[raw]</code> type <code>[image]</code> format.
          *       Boolean sets entire layer, string sets mask image, Array sets array of rectangles in format <code>[x1,y1,x2,y2]</code>.
@@ -1763,8 +1877,8 @@ var qz = (function() {
              *
              * @param {string} port An open serial port to send data.
              * @param {string|Array<string>|Object} data Data to be sent to the serial device.
-             *  @param {string} [data.type='PLAIN'] Valid values <code>[FILE | PLAIN | HEX | BASE64]</code>
-             *  @param {string|Array<string>} data.data Data to be sent to the serial device.
+             *  @param {string} [data.type='PLAIN'] Valid values <code>[FILE | PLAIN | HEX | BASE64 | BINARY]</code>
+             *  @param {string|Array<string>|Uint8Array} data.data Data to be sent to the serial device, a <code>Uint8Array</code> for <code>BINARY</code>.
              * @param {Object} options Serial port configuration updates. See <code>qz.serial.openPort</code> `options` docs for available values.
              *     For best performance, it is recommended to only set these values on the port open call.
              *
@@ -2480,7 +2594,7 @@ var qz = (function() {
              *  @param {boolean} [params.sandbox=true] If relative location from root is only available to the certificate's connection, otherwise all connections
              *  @param {boolean} [params.shared=true] If relative location from root is accessible to all users on the system, otherwise just the current user
              *  @param {boolean} [params.append=false] Appends to the end of the file if set, otherwise overwrites existing contents
-             *  @param {string} [params.flavor='plain'] Flavor of data format used, valid flavors are <code>[base64 | file | hex | plain]</code>.
+             *  @param {string} [params.flavor='plain'] Flavor of data format used, valid flavors are <code>[base64 | binary | file | hex | plain]</code>.
              * @returns {Promise<null|Error>}
              *
              * @memberof qz.file
@@ -1,7 +1,5 @@
 package qz.auth;
 
-import org.apache.commons.codec.binary.StringUtils;
-import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.Charsets;
 import org.apache.commons.ssl.Base64;
 import org.apache.commons.ssl.X509CertificateChainBuilder;
@@ -80,6 +78,8 @@ public class Certificate {
     private boolean valid = false;
     private boolean rootCA = false; // TODO: Move to constructor?
 
+    private SignatureVerifier verifier;
+
 
     //Pre-set certificate for use when missing
     public static final Certificate UNKNOWN;
@@ -350,11 +350,7 @@ public class Certificate {
         if (!signature.isEmpty()) {
             //On errors, assume failure.
             try {
-                Signature verifier = Signature.getInstance(algorithm.name);
-                verifier.initVerify(theCertificate.getPublicKey());
-                verifier.update(StringUtils.getBytesUtf8(DigestUtils.sha256Hex(data)));
-
-                return verifier.verify(Base64.decodeBase64(signature));
+                return getVerifier().verify(algorithm, signature, data);
             }
             catch(GeneralSecurityException e) {
                 log.error("Unable to verify signature", e);
@@ -364,6 +360,14 @@ public class Certificate {
         return false;
     }
 
+    private synchronized SignatureVerifier getVerifier() {
+        if (verifier == null) {
+            verifier = new SignatureVerifier(getFingerprint(), theCertificate.getPublicKey());
+        }
+
+        return verifier;
+    }
+
     /** Checks if the certificate has been added to the specified allow file */
     public boolean isSaved(boolean local) {
         File allowed = FileUtilities.getFile(Constants.ALLOW_FILE, local);
@@ -383,26 +387,7 @@ public class Certificate {
     }
 
     private static boolean existsInAnyFile(String fingerprint, File... files) {
-        for(File file : files) {
-            if (file == null) { continue; }
-
-            try(BufferedReader br = new BufferedReader(new FileReader(file))) {
-                String line;
-                while((line = br.readLine()) != null) {
-                    if (line.contains("\t")) {
-                        String print = line.substring(0, line.indexOf("\t"));
-                        if (print.equals(fingerprint)) {
-                            return true;
-                        }
-                    }
-                }
-            }
-            catch(IOException e) {
-                e.printStackTrace();
-            }
-        }
-
-        return false;
+        return FingerprintIndex.existsInAnyFile(fingerprint, files);
     }
 
 
@@ -0,0 +1,185 @@
+package qz.auth;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory index of the fingerprints listed in the allow/block files, so that permission checks don't read from disk.
+ * <p>
+ * Each file is read the first time it is checked and then kept current by watching its directory for changes.
+ * Files which cannot be watched are re-read whenever their size or modification time changes.
+ */
+public class FingerprintIndex {
+
+    private static final Logger log = LogManager.getLogger(FingerprintIndex.class);
+
+    private static final ConcurrentHashMap<File,Entry> index = new ConcurrentHashMap<>();
+    // directory -> watched file names
+    private static final HashMap<Path,Set<String>> watched = new HashMap<>();
+    // bumped on every invalidation, so a load racing with a change isn't kept
+    private static final AtomicLong changes = new AtomicLong(0);
+
+    private static WatchService watchService;
+
+    /**
+     * @return {@code true} if {@code fingerprint} is listed in any of the {@code files}
+     */
+    public static boolean existsInAnyFile(String fingerprint, File... files) {
+        for(File file : files) {
+            if (file == null) { continue; }
+
+            file = file.getAbsoluteFile();
+            Entry entry = index.get(file);
+            if (entry == null || entry.isStale()) {
+                entry = load(file);
+            }
+            if (entry.fingerprints.contains(fingerprint)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Forces {@code file} to be re-read on its next check, used after it has been written to
+     */
+    public static void invalidate(File file) {
+        if (file != null) {
+            changes.incrementAndGet();
+            index.remove(file.getAbsoluteFile());
+        }
+    }
+
+    private static Entry load(File file) {
+        Set<String> fingerprints = new HashSet<>();
+        boolean polled = !watch(file);
+        long before = changes.get();
+        long modified = file.lastModified();
+        long length = file.length();
+
+        try(BufferedReader br = new BufferedReader(new FileReader(file))) {
+            String line;
+            while((line = br.readLine()) != null) {
+                if (line.contains("\t")) {
+                    fingerprints.add(line.substring(0, line.indexOf("\t")));
+                }
+            }
+        }
+        catch(IOException e) {
+            log.warn("Unable to read {}", file, e);
+        }
+
+        Entry entry = new Entry(Collections.unmodifiableSet(fingerprints), polled? modified:-1, polled? length:-1, file);
+        index.put(file, entry);
+        if (changes.get() != before) {
+            index.remove(file, entry);
+        }
+        log.debug("Indexed {} fingerprint(s) from {}", fingerprints.size(), file);
+
+        return entry;
+    }
+
+    /**
+     * Registers the parent directory of {@code file} for change events
+     *
+     * @return {@code false} if the file can't be watched and must be polled instead
+     */
+    private static synchronized boolean watch(File file) {
+        Path dir = file.toPath().getParent();
+        if (dir == null) { return false; }
+
+        Set<String> names = watched.get(dir);
+        if (names == null) {
+            try {
+                if (watchService == null) {
+                    WatchService service = FileSystems.getDefault().newWatchService();
+                    watchService = service;
+                    Thread watchThread = new Thread(() -> processEvents(service), "qz-fingerprint-watcher");
+                    watchThread.setDaemon(true);
+                    watchThread.start();
+                }
+
+                dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                names = new HashSet<>();
+                watched.put(dir, names);
+            }
+            catch(IOException | UnsupportedOperationException e) {
+                log.warn("Unable to watch {} for changes, falling back to polling", dir, e);
+                return false;
+            }
+        }
+        names.add(file.getName());
+
+        return true;
+    }
+
+    private static void processEvents(WatchService service) {
+        while(true) {
+            try {
+                WatchKey key = service.take();
+                Path dir = (Path)key.watchable();
+                for(WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        // events were lost, re-read everything
+                        changes.incrementAndGet();
+                        index.clear();
+                    } else {
+                        invalidate(dir.resolve(event.context().toString()).toFile());
+                    }
+                }
+                if (!key.reset()) {
+                    // directory is gone, register it again if it comes back
+                    synchronized(FingerprintIndex.class) {
+                        watched.remove(dir);
+                    }
+                    changes.incrementAndGet();
+                    index.clear();
+                }
+            }
+            catch(InterruptedException | ClosedWatchServiceException e) {
+                log.warn("Fingerprint watcher ending, files will be watched again or re-read on their next check");
+                synchronized(FingerprintIndex.class) {
+                    // nothing reads this service anymore, so the next watch must start a new one
+                    if (watchService == service) {
+                        watchService = null;
+                    }
+                    watched.clear();
+                    try { service.close(); } catch(IOException ignore) {}
+                }
+                changes.incrementAndGet();
+                index.clear();
+                return;
+            }
+        }
+    }
+
+    private static class Entry {
+        private final Set<String> fingerprints;
+        private final long modified;
+        private final long length;
+        private final File file;
+
+        Entry(Set<String> fingerprints, long modified, long length, File file) {
+            this.fingerprints = fingerprints;
+            this.modified = modified;
+            this.length = length;
+            this.file = file;
+        }
+
+        /** Only polled entries can go stale, watched entries are removed from the index when changed */
+        boolean isStale() {
+            return modified >= 0 && (file.lastModified() != modified || file.length() != length);
+        }
+    }
+
+}
@@ -0,0 +1,92 @@
+package qz.auth;
+
+import org.apache.commons.codec.binary.StringUtils;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.ssl.Base64;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import qz.common.Metrics;
+
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Verifies request signatures for a single certificate, reusing initialized {@link Signature} instances
+ * and remembering recently verified signatures so that retried requests skip the RSA operation.
+ */
+public class SignatureVerifier {
+
+    private static final Logger log = LogManager.getLogger(SignatureVerifier.class);
+
+    private static final int POOL_SIZE = 4; // per algorithm
+    private static final int CACHE_SIZE = 512;
+
+    private static final Metrics.Timer verifyTimer = Metrics.timer("signature.verifyTime");
+    private static final Metrics.Counter cacheHits = Metrics.counter("signature.cacheHits");
+    private static final Metrics.Counter failures = Metrics.counter("signature.failures");
+
+    // shared across certificates, keys include the certificate fingerprint
+    private static final Set<String> verified = Collections.newSetFromMap(Collections.synchronizedMap(new LinkedHashMap<String,Boolean>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String,Boolean> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    }));
+
+    private final String fingerprint;
+    private final PublicKey publicKey;
+    private final EnumMap<Certificate.Algorithm,Queue<Signature>> pools = new EnumMap<>(Certificate.Algorithm.class);
+
+    public SignatureVerifier(String fingerprint, PublicKey publicKey) {
+        this.fingerprint = fingerprint;
+        this.publicKey = publicKey;
+
+        for(Certificate.Algorithm algorithm : Certificate.Algorithm.values()) {
+            pools.put(algorithm, new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    /**
+     * Checks that {@code signature} was made by this certificate over the SHA-256 hex digest of {@code data}
+     */
+    public boolean verify(Certificate.Algorithm algorithm, String signature, String data) throws GeneralSecurityException {
+        String hash = DigestUtils.sha256Hex(data);
+        String cacheKey = String.join(":", fingerprint, algorithm.name(), hash, signature);
+
+        if (verified.contains(cacheKey)) {
+            cacheHits.increment();
+            return true;
+        }
+
+        long start = System.nanoTime();
+        Queue<Signature> pool = pools.get(algorithm);
+
+        Signature verifier = pool.poll();
+        if (verifier == null) {
+            verifier = Signature.getInstance(algorithm.name);
+            verifier.initVerify(publicKey);
+        }
+
+        verifier.update(StringUtils.getBytesUtf8(hash));
+        boolean valid = verifier.verify(Base64.decodeBase64(signature));
+
+        // verify() resets the instance for reuse, an exception above discards it instead
+        if (pool.size() < POOL_SIZE) {
+            pool.offer(verifier);
+        }
+        verifyTimer.recordSince(start);
+
+        if (valid) {
+            verified.add(cacheKey);
+        } else {
+            failures.increment();
+            log.trace("Signature did not match for {}", fingerprint);
+        }
+
+        return valid;
+    }
+
+}
@@ -46,6 +46,7 @@ public class AboutInfo {
             about.put("environment", environment());
             about.put("ssl", ssl(certificateManager));
             about.put("libraries", libraries());
+            about.put("metrics", Metrics.toJSON());
         }
         catch(JSONException | GeneralSecurityException e) {
             log.error("Failed to write JSON data", e);
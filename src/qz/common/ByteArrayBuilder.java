@@ -12,11 +12,14 @@
 
 package qz.common;
 
-import org.apache.commons.lang3.ArrayUtils;
-
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -29,7 +32,11 @@ import java.util.List;
 @SuppressWarnings("UnusedDeclaration") //Library class
 public final class ByteArrayBuilder {
 
-    private List<Byte> buffer;
+    // largest array size most VMs will allocate
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+    private byte[] buffer;
+    private int length;
 
 
     /**
@@ -67,7 +74,7 @@ public final class ByteArrayBuilder {
      * @param initialCapacity the initial capacity of the <code>ByteArrayBuilder</code>
      */
     public ByteArrayBuilder(byte[] initialContents, int initialCapacity) {
-        buffer = new ArrayList<>(initialCapacity);
+        buffer = new byte[Math.max(initialCapacity, initialContents == null? 0:initialContents.length)];
         if (initialContents != null) {
             append(initialContents);
         }
@@ -77,7 +84,7 @@ public final class ByteArrayBuilder {
      * Empties the <code>ByteArrayBuilder</code>
      */
     public void clear() {
-        buffer.clear();
+        length = 0;
     }
 
     /**
@@ -87,7 +94,11 @@ public final class ByteArrayBuilder {
      * @param endIndex   Ending index, exclusive
      */
     public final void clearRange(int startIndex, int endIndex) {
-        buffer.subList(startIndex, endIndex).clear();
+        if (startIndex < 0 || endIndex > length || startIndex > endIndex) {
+            throw new IndexOutOfBoundsException("Range [" + startIndex + ", " + endIndex + ") out of bounds for length " + length);
+        }
+        System.arraycopy(buffer, endIndex, buffer, startIndex, length - endIndex);
+        length -= endIndex - startIndex;
     }
 
     /**
@@ -96,7 +107,7 @@ public final class ByteArrayBuilder {
      * @return the number of bytes in the <code>ByteArrayBuilder</code>
      */
     public int getLength() {
-        return buffer.size();
+        return length;
     }
 
     /**
@@ -107,15 +118,51 @@ public final class ByteArrayBuilder {
      * @return this <code>ByteArrayBuilder</code>
      */
     public final ByteArrayBuilder append(byte[] bytes) {
-        for(byte b : bytes) {
-            buffer.add(b);
+        return append(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Appends {@code length} bytes of {@code bytes}, starting at {@code offset}, to this <code>ByteArrayBuilder</code>.
+     * Returns this same object to allow chaining calls
+     *
+     * @param bytes  the byte array to append from
+     * @param offset the first byte to append
+     * @param length the number of bytes to append
+     * @return this <code>ByteArrayBuilder</code>
+     */
+    public final ByteArrayBuilder append(byte[] bytes, int offset, int length) {
+        ensureCapacity(this.length + length);
+        System.arraycopy(bytes, offset, buffer, this.length, length);
+        this.length += length;
+        return this;
+    }
+
+    /**
+     * Reads {@code length} bytes from {@code channel} straight into this <code>ByteArrayBuilder</code>, without
+     * copying them through an intermediate array.
+     * Returns this same object to allow chaining calls
+     *
+     * @param channel the channel to read from
+     * @param length  the number of bytes to read
+     * @return this <code>ByteArrayBuilder</code>
+     * @throws EOFException if the channel ends before {@code length} bytes were read
+     */
+    public final ByteArrayBuilder append(ReadableByteChannel channel, int length) throws IOException {
+        ensureCapacity(this.length + length);
+        ByteBuffer target = ByteBuffer.wrap(buffer, this.length, length);
+        while(target.hasRemaining()) {
+            if (channel.read(target) < 0) {
+                throw new EOFException("Channel ended " + target.remaining() + " bytes early");
+            }
         }
+        this.length += length;
         return this;
     }
 
     public final ByteArrayBuilder append(List<Byte> bytes) {
+        ensureCapacity(length + bytes.size());
         for(byte b : bytes) {
-            buffer.add(b);
+            buffer[length++] = b;
         }
         return this;
     }
@@ -151,6 +198,50 @@ public final class ByteArrayBuilder {
      * @return The contents of this <code>ByteArrayBuilder</code> as a single <code>byte</code> array
      */
     public byte[] getByteArray() {
-        return ArrayUtils.toPrimitive(buffer.toArray(new Byte[buffer.size()]));
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * Returns a read-only view of the contents of this <code>ByteArrayBuilder</code>, without copying them.
+     * The view is only valid until this <code>ByteArrayBuilder</code> is next modified.
+     *
+     * @return The contents of this <code>ByteArrayBuilder</code> as a read-only <code>ByteBuffer</code>
+     */
+    public ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(buffer, 0, length).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Writes the contents of this <code>ByteArrayBuilder</code> to {@code out}, without copying them
+     *
+     * @param out the stream to write to
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, length);
+    }
+
+    /**
+     * Writes part of the contents of this <code>ByteArrayBuilder</code> to {@code out}, without copying them
+     *
+     * @param out    the stream to write to
+     * @param offset the index of the first byte to write
+     * @param length the number of bytes to write
+     */
+    public void writeTo(OutputStream out, int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > this.length) {
+            throw new IndexOutOfBoundsException("Range " + offset + "+" + length + " is outside of " + this.length + " bytes");
+        }
+        out.write(buffer, offset, length);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity < 0 || capacity > MAX_CAPACITY) {
+            throw new OutOfMemoryError("ByteArrayBuilder cannot hold more than " + MAX_CAPACITY + " bytes");
+        }
+        if (capacity > buffer.length) {
+            // grow by half again, which keeps appends amortized constant without overshooting large jobs by too much
+            int grown = (int)Math.min(MAX_CAPACITY, buffer.length + ((long)buffer.length >> 1));
+            buffer = Arrays.copyOf(buffer, Math.max(Math.max(grown, capacity), 16));
+        }
     }
 }
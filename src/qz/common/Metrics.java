@@ -0,0 +1,119 @@
+package qz.common;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Lightweight, lock-free runtime counters and timers, exposed through the "about" JSON endpoint
+ */
+public class Metrics {
+
+    private static final Logger log = LogManager.getLogger(Metrics.class);
+
+    private static final ConcurrentHashMap<String,Counter> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String,Timer> timers = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String,Supplier<? extends Number>> gauges = new ConcurrentHashMap<>();
+
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, k -> new Counter());
+    }
+
+    public static Timer timer(String name) {
+        return timers.computeIfAbsent(name, k -> new Timer());
+    }
+
+    /**
+     * Registers a value that is sampled each time metrics are gathered, replacing any previous gauge of the same name
+     */
+    public static void gauge(String name, Supplier<? extends Number> supplier) {
+        gauges.put(name, supplier);
+    }
+
+    public static JSONObject toJSON() {
+        JSONObject metrics = new JSONObject();
+
+        try {
+            for(Map.Entry<String,Counter> entry : new TreeMap<>(counters).entrySet()) {
+                metrics.put(entry.getKey(), entry.getValue().get());
+            }
+            for(Map.Entry<String,Supplier<? extends Number>> entry : new TreeMap<>(gauges).entrySet()) {
+                metrics.put(entry.getKey(), entry.getValue().get());
+            }
+            for(Map.Entry<String,Timer> entry : new TreeMap<>(timers).entrySet()) {
+                metrics.put(entry.getKey(), entry.getValue().toJSON());
+            }
+        }
+        catch(JSONException e) {
+            log.warn("Failed to gather metrics", e);
+        }
+
+        return metrics;
+    }
+
+
+    public static class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    public static class Timer {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        /**
+         * Records a single duration measured from {@code startNanos}, as returned by <code>System.nanoTime()</code>
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public void record(long nanos) {
+            count.increment();
+            total.add(nanos);
+            max.accumulateAndGet(nanos, Math::max);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public double getAverageMillis() {
+            long samples = count.sum();
+            return samples == 0? 0:(double)total.sum() / samples / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        public double getMaxMillis() {
+            return (double)max.get() / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        public JSONObject toJSON() throws JSONException {
+            return new JSONObject()
+                    .put("count", getCount())
+                    .put("avgMillis", getAverageMillis())
+                    .put("maxMillis", getMaxMillis());
+        }
+    }
+
+}
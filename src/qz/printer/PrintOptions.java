@@ -30,12 +30,14 @@ public class PrintOptions {
     private Pixel psOptions = new Pixel();
     private Raw rawOptions = new Raw();
     private Default defOptions = new Default();
+    private String destination = null;
 
 
     /**
      * Parses the provided JSON Object into relevant Pixel and Raw options
      */
     public PrintOptions(JSONObject configOpts, PrintOutput output, PrintingUtilities.Format format) {
+        destination = output.getDestination();
         if (configOpts == null) { return; }
 
         //check for raw options
@@ -410,6 +412,9 @@ public class PrintOptions {
 
     public Default getDefaultOptions() { return defOptions; }
 
+    /** Where the job will be sent, see {@link PrintOutput#getDestination()} */
+    public String getDestination() { return destination; }
+
 
     // Option groups //
 
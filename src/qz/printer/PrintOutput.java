@@ -85,6 +85,21 @@ public class PrintOutput {
         return port;
     }
 
+    /**
+     * @return A name for where output is sent, the same for every job sent there, or {@code null} if nothing is set
+     */
+    public String getDestination() {
+        if (isSetHost()) {
+            return host + ":" + port;
+        } else if (isSetFile()) {
+            return file.getAbsolutePath();
+        } else if (printer != null) {
+            return printer.getPrinterId();
+        }
+
+        return null;
+    }
+
     public Media[] getSupportedMedia() {
         return (Media[])getPrintService().getSupportedAttributeValues(Media.class, null, null);
     }
@@ -9,6 +9,7 @@ import org.apache.logging.log4j.Logger;
 import qz.common.Constants;
 import qz.printer.PrintOptions;
 import qz.printer.PrintOutput;
+import qz.utils.ConnectionUtilities;
 import qz.utils.PrintingUtilities;
 
 import javax.print.DocFlavor;
@@ -18,11 +19,14 @@ import javax.print.SimpleDoc;
 import javax.print.attribute.HashPrintRequestAttributeSet;
 import javax.print.attribute.PrintRequestAttributeSet;
 import javax.print.attribute.standard.JobName;
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Locale;
 
@@ -64,8 +68,17 @@ public class PrintDirect extends PrintRaw {
                     case BASE64:
                         stream = new Base64InputStream(new ByteArrayInputStream(prints.get(i).getBytes("UTF-8")));
                         break;
+                    case BINARY:
+                        stream = new ByteArrayInputStream(flavors.get(i).read(prints.get(i)));
+                        break;
                     case FILE:
-                        stream = new DataInputStream(new URL(prints.get(i)).openStream());
+                        // read local files directly rather than through a URL connection
+                        Path local = ConnectionUtilities.getLocalFile(prints.get(i), false);
+                        if (local != null) {
+                            stream = new BufferedInputStream(Files.newInputStream(local), Constants.BYTE_BUFFER_SIZE);
+                        } else {
+                            stream = new DataInputStream(new URL(prints.get(i)).openStream());
+                        }
                         break;
                     case PLAIN:
                     default:
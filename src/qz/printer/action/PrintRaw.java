@@ -10,6 +10,7 @@
 package qz.printer.action;
 
 import com.ibm.icu.text.ArabicShapingException;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
@@ -19,12 +20,17 @@ import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import qz.common.ByteArrayBuilder;
 import qz.common.Constants;
+import qz.exception.InvalidRawImageException;
 import qz.exception.NullCommandException;
 import qz.exception.NullPrintServiceException;
+import qz.printer.action.raw.ConvertedImageCache;
+import qz.printer.action.raw.Dithering;
+import qz.printer.action.raw.GraphicCache;
+import qz.printer.action.raw.HostConnectionPool;
 import qz.printer.action.raw.ImageWrapper;
 import qz.printer.action.raw.LanguageType;
+import qz.printer.action.raw.SpooledCommands;
 import qz.printer.PrintOptions;
 import qz.printer.PrintOutput;
 import qz.printer.action.html.WebApp;
@@ -43,8 +49,9 @@ import javax.print.event.PrintJobListener;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.*;
-import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -61,10 +68,12 @@ public class PrintRaw implements PrintProcessor {
 
     private static final Logger log = LogManager.getLogger(PrintRaw.class);
 
-    private ByteArrayBuilder commands;
+    private SpooledCommands commands;
 
     private String destEncoding = null;
 
+    private GraphicCache.Job graphics = null;
+
     private enum Backend {
         CUPS_RSS,
         CUPS_LPR,
@@ -72,7 +81,7 @@ public class PrintRaw implements PrintProcessor {
     }
 
     public PrintRaw() {
-        commands = new ByteArrayBuilder();
+        commands = new SpooledCommands(PrefsSearch.getInt(ArgValue.PRINTER_RAW_MEMORY));
     }
 
     @Override
@@ -114,17 +123,14 @@ public class PrintRaw implements PrintProcessor {
 
             destEncoding = rawOpts.getDestEncoding();
             if (destEncoding == null || destEncoding.isEmpty()) { destEncoding = Charset.defaultCharset().name(); }
+            if (graphics == null) { graphics = GraphicCache.begin(options.getDestination()); }
 
             try {
                 switch(format) {
                     case HTML:
-                        commands.append(getHtmlWrapper(cmd, opt, flavor, rawOpts, pxlOpts).getImageCommand(opt));
-                        break;
                     case IMAGE:
-                        commands.append(getImageWrapper(cmd, opt, flavor, rawOpts, pxlOpts).getImageCommand(opt));
-                        break;
                     case PDF:
-                        commands.append(getPdfWrapper(cmd, opt, flavor, rawOpts, pxlOpts).getImageCommand(opt));
+                        commands.append(getImageCommand(format, cmd, opt, flavor, rawOpts, pxlOpts));
                         break;
                     case COMMAND:
                     default:
@@ -132,6 +138,21 @@ public class PrintRaw implements PrintProcessor {
                             case PLAIN:
                                 commands.append(getBytes(cmd, destEncoding));
                                 break;
+                            case FILE:
+                                if (rawOpts.getSrcEncoding() == null) {
+                                    // nothing to convert, copy a local file directly or stream it straight into the job
+                                    Path local = ConnectionUtilities.getLocalFile(cmd, true);
+                                    if (local != null) {
+                                        commands.append(local);
+                                    } else {
+                                        try(InputStream in = ConnectionUtilities.getInputStream(cmd, true)) {
+                                            commands.append(in);
+                                        }
+                                    }
+                                } else {
+                                    commands.append(seekConversion(flavor.read(cmd, opt.optString("xmlTag", null)), rawOpts));
+                                }
+                                break;
                             default:
                                 commands.append(seekConversion(flavor.read(cmd, opt.optString("xmlTag", null)), rawOpts));
                         }
@@ -161,40 +182,78 @@ public class PrintRaw implements PrintProcessor {
         return rawBytes;
     }
 
-    private ImageWrapper getImageWrapper(String data, JSONObject opt, PrintingUtilities.Flavor flavor, PrintOptions.Raw rawOpts, PrintOptions.Pixel pxlOpts) throws IOException {
-        BufferedImage bi;
+    /**
+     * Converts an image, PDF or HTML page to raw commands, reusing the commands from an identical earlier conversion if possible
+     */
+    private byte[] getImageCommand(PrintingUtilities.Format format, String data, JSONObject opt, PrintingUtilities.Flavor flavor, PrintOptions.Raw rawOpts, PrintOptions.Pixel pxlOpts) throws IOException, InvalidRawImageException {
         // 2.0 compat
-        if (data.startsWith("data:image/") && data.contains(";base64,")) {
+        if (format == PrintingUtilities.Format.IMAGE && data.startsWith("data:image/") && data.contains(";base64,")) {
             String[] parts = data.split(";base64,");
             data = parts[parts.length - 1];
             flavor = PrintingUtilities.Flavor.BASE64;
         }
 
-        switch(flavor) {
-            case PLAIN:
-                // There's really no such thing as a 'PLAIN' image, assume it's a URL
-            case FILE:
-                bi = ImageIO.read(ConnectionUtilities.getInputStream(data, true));
+        // images and PDFs are read once, both to hash and to decode
+        byte[] source = format == PrintingUtilities.Format.HTML? null:readSource(data, flavor, rawOpts);
+
+        // commands recalling graphics stored on the printer depend on earlier jobs, and HTML can load pages, images and styles that change at any time
+        String key = null;
+        if (ConvertedImageCache.isEnabled() && !opt.optBoolean("cache", false) && format != PrintingUtilities.Format.HTML) {
+            key = ConvertedImageCache.key(source, opt, format, flavor, rawOpts.getSrcEncoding(), destEncoding,
+                                          pxlOpts.getDensity(), pxlOpts.getUnits(), pxlOpts.getOrientation(), pxlOpts.getRotation(),
+                                          pxlOpts.getDithering(), pxlOpts.getInterpolation());
+
+            byte[] cached = ConvertedImageCache.get(key);
+            if (cached != null) {
+                log.debug("Reusing previously converted raw {}", format);
+                return cached;
+            }
+        }
+
+        ImageWrapper iw;
+        switch(format) {
+            case HTML:
+                iw = getHtmlWrapper(data, opt, flavor, rawOpts, pxlOpts);
                 break;
+            case PDF:
+                iw = getPdfWrapper(source, opt, pxlOpts);
+                break;
+            case IMAGE:
             default:
-                bi = ImageIO.read(new ByteArrayInputStream(seekConversion(flavor.read(data), rawOpts)));
+                iw = getImageWrapper(source, opt, pxlOpts);
         }
 
-        return getWrapper(bi, opt, pxlOpts);
-    }
+        byte[] command = iw.getImageCommand(opt);
+        if (key != null) {
+            ConvertedImageCache.put(key, command);
+        }
 
-    private ImageWrapper getPdfWrapper(String data, JSONObject opt, PrintingUtilities.Flavor flavor, PrintOptions.Raw rawOpts, PrintOptions.Pixel pxlOpts) throws IOException {
-        PDDocument doc;
+        return command;
+    }
 
+    /**
+     * Reads the content of an image or PDF
+     */
+    private byte[] readSource(String data, PrintingUtilities.Flavor flavor, PrintOptions.Raw rawOpts) throws IOException {
         switch(flavor) {
             case PLAIN:
-                // There's really no such thing as a 'PLAIN' PDF, assume it's a URL
+                // There's really no such thing as a 'PLAIN' image or PDF, assume it's a URL
             case FILE:
-                doc = PDDocument.load(ConnectionUtilities.getInputStream(data, true));
-                break;
+                try(InputStream in = ConnectionUtilities.getInputStream(data, true)) {
+                    return IOUtils.toByteArray(in);
+                }
             default:
-                doc = PDDocument.load(new ByteArrayInputStream(seekConversion(flavor.read(data), rawOpts)));
+                return seekConversion(flavor.read(data), rawOpts);
         }
+    }
+
+    private ImageWrapper getImageWrapper(byte[] source, JSONObject opt, PrintOptions.Pixel pxlOpts) throws IOException {
+        BufferedImage bi = ImageIO.read(new ByteArrayInputStream(source));
+        return getWrapper(bi, opt, pxlOpts);
+    }
+
+    private ImageWrapper getPdfWrapper(byte[] source, JSONObject opt, PrintOptions.Pixel pxlOpts) throws IOException {
+        PDDocument doc = PDDocument.load(source);
 
         double scale;
         PDRectangle rect = doc.getPage(0).getBBox();
@@ -295,6 +354,12 @@ public class PrintRaw implements PrintProcessor {
         }
         iw.setDotDensity(density);
 
+        iw.setDithering(Dithering.getType(opt.optString("dithering", null)));
+
+        if (opt.optBoolean("cache", false)) {
+            iw.setGraphicCache(graphics);
+        }
+
         //EPL only
         iw.setxPos(opt.optInt("x", 0));
         iw.setyPos(opt.optInt("y", 0));
@@ -310,12 +375,12 @@ public class PrintRaw implements PrintProcessor {
     public void print(PrintOutput output, PrintOptions options) throws PrintException {
         PrintOptions.Raw rawOpts = options.getRawOptions();
 
-        List<ByteArrayBuilder> pages;
+        List<SpooledCommands> pages;
         if (rawOpts.getSpoolSize() > 0 && rawOpts.getSpoolEnd() != null && !rawOpts.getSpoolEnd().isEmpty()) {
             try {
-                pages = ByteUtilities.splitByteArray(commands.getByteArray(), rawOpts.getSpoolEnd().getBytes(destEncoding), rawOpts.getSpoolSize());
+                pages = commands.split(rawOpts.getSpoolEnd().getBytes(destEncoding), rawOpts.getSpoolSize());
             }
-            catch(UnsupportedEncodingException e) {
+            catch(IOException e) {
                 throw new PrintException(e);
             }
         } else {
@@ -323,47 +388,59 @@ public class PrintRaw implements PrintProcessor {
             pages.add(commands);
         }
 
-        List<File> tempFiles = null;
-        for(int i = 0; i < rawOpts.getCopies(); i++) {
-            for(int j = 0; j < pages.size(); j++) {
-                ByteArrayBuilder bab = pages.get(j);
-                try {
-                    if (output.isSetHost()) {
-                        printToHost(output.getHost(), output.getPort(), bab.getByteArray());
-                    } else if (output.isSetFile()) {
-                        printToFile(output.getFile(), bab.getByteArray(), true);
-                    } else {
-                        if (rawOpts.isForceRaw()) {
-                            if(tempFiles == null) {
-                                tempFiles = new ArrayList<>(pages.size());
-                            }
-                            File tempFile;
-                            if(tempFiles.size() <= j) {
-                                tempFile = File.createTempFile("qz_raw_", null);
-                                tempFiles.add(j, tempFile);
-                                printToFile(tempFile, bab.getByteArray(), false);
-                            } else {
-                                tempFile = tempFiles.get(j);
-                            }
-                            if(SystemUtilities.isWindows()) {
-                                // Placeholder only; not yet supported
-                                printToBackend(output.getNativePrinter(), tempFile, Backend.WIN32_WMI);
+        if (output.isSetHost()) {
+            try {
+                printToHost(output.getHost(), output.getPort(), pages, rawOpts.getCopies());
+            }
+            catch(IOException e) {
+                throw new PrintException(e);
+            }
+        } else {
+            List<File> tempFiles = null;
+            for(int i = 0; i < rawOpts.getCopies(); i++) {
+                for(int j = 0; j < pages.size(); j++) {
+                    SpooledCommands page = pages.get(j);
+                    try {
+                        if (output.isSetFile()) {
+                            printToFile(output.getFile(), page, true);
+                        } else {
+                            if (rawOpts.isForceRaw()) {
+                                if(tempFiles == null) {
+                                    tempFiles = new ArrayList<>(pages.size());
+                                }
+                                File tempFile;
+                                if(tempFiles.size() <= j) {
+                                    tempFile = File.createTempFile("qz_raw_", null);
+                                    tempFiles.add(j, tempFile);
+                                    printToFile(tempFile, page, false);
+                                } else {
+                                    tempFile = tempFiles.get(j);
+                                }
+                                if(SystemUtilities.isWindows()) {
+                                    // Placeholder only; not yet supported
+                                    printToBackend(output.getNativePrinter(), tempFile, Backend.WIN32_WMI);
+                                } else {
+                                    // Try CUPS backend first, fallback to LPR
+                                    printToBackend(output.getNativePrinter(), tempFile, Backend.CUPS_RSS, Backend.CUPS_LPR);
+                                }
                             } else {
-                                // Try CUPS backend first, fallback to LPR
-                                printToBackend(output.getNativePrinter(), tempFile, Backend.CUPS_RSS, Backend.CUPS_LPR);
+                                printToPrinter(output.getPrintService(), page, rawOpts);
                             }
-                        } else {
-                            printToPrinter(output.getPrintService(), bab.getByteArray(), rawOpts);
                         }
                     }
-                }
-                catch(IOException e) {
-                    cleanupTempFiles(rawOpts.isRetainTemp(), tempFiles);
-                    throw new PrintException(e);
+                    catch(IOException e) {
+                        cleanupTempFiles(rawOpts.isRetainTemp(), tempFiles);
+                        throw new PrintException(e);
+                    }
                 }
             }
+            cleanupTempFiles(rawOpts.isRetainTemp(), tempFiles);
+        }
+
+        // job was sent, later jobs can recall the graphics it stored
+        if (graphics != null) {
+            graphics.commit();
         }
-        cleanupTempFiles(rawOpts.isRetainTemp(), tempFiles);
     }
 
     private void cleanupTempFiles(boolean retainTemp, List<File> tempFiles) {
@@ -389,12 +466,36 @@ public class PrintRaw implements PrintProcessor {
      * so the Operating System will have absolutely no printer information.
      * This is printing "blind".
      */
-    private void printToHost(String host, int port, byte[] cmds) throws IOException {
+    private void printToHost(String host, int port, List<SpooledCommands> pages, int copies) throws IOException {
         log.debug("Printing to host {}:{}", host, port);
 
-        //throws any exception and auto-closes socket and stream
-        try(Socket socket = new Socket(host, port); DataOutputStream out = new DataOutputStream(socket.getOutputStream())) {
-            out.write(cmds);
+        // every page and copy goes over the same connection
+        HostConnectionPool.Connection connection = HostConnectionPool.borrow(host, port);
+        boolean sent = false;
+        try {
+            ByteBuffer[] job = new ByteBuffer[pages.size()];
+            for(int i = 0; i < copies; i++) {
+                if (commands.isBuffered()) {
+                    for(SpooledCommands page : pages) {
+                        page.transferFile(connection::write);
+                    }
+                } else {
+                    // each copy is a fresh view of the same commands, sent in one gathering write
+                    for(int j = 0; j < pages.size(); j++) {
+                        job[j] = pages.get(j).asByteBuffer();
+                    }
+                    connection.write(job);
+                }
+            }
+            sent = true;
+        }
+        finally {
+            if (sent) {
+                HostConnectionPool.release(connection);
+            } else {
+                // a connection that failed part way through can't be trusted for another job
+                connection.close();
+            }
         }
     }
 
@@ -403,7 +504,7 @@ public class PrintRaw implements PrintProcessor {
      *
      * @param file File to be written
      */
-    private void printToFile(File file, byte[] cmds, boolean locationRestricted) throws IOException {
+    private void printToFile(File file, SpooledCommands cmds, boolean locationRestricted) throws IOException {
         if(file == null) throw new IOException("No file specified");
 
         if(locationRestricted && !PrefsSearch.getBoolean(ArgValue.SECURITY_PRINT_TOFILE)) {
@@ -415,26 +516,31 @@ public class PrintRaw implements PrintProcessor {
         log.debug("Printing to file: {}", file.getName());
 
         //throws any exception and auto-closes stream
-        try(OutputStream out = new FileOutputStream(file)) {
-            out.write(cmds);
+        try(FileOutputStream out = new FileOutputStream(file)) {
+            cmds.writeTo(out.getChannel());
         }
     }
 
     /**
-     * Constructs a {@code SimpleDoc} with the {@code commands} byte array.
+     * Constructs a {@code SimpleDoc} with the {@code commands} byte array, or a stream over them if they were buffered to a file.
      */
-    private void printToPrinter(PrintService service, byte[] cmds, PrintOptions.Raw rawOpts) throws PrintException {
+    private void printToPrinter(PrintService service, SpooledCommands cmds, PrintOptions.Raw rawOpts) throws PrintException, IOException {
         if (service == null) { throw new NullPrintServiceException("Service cannot be null"); }
-        if (cmds == null || cmds.length == 0) { throw new NullCommandException("No commands found to send to the printer"); }
-
-        SimpleDoc doc = new SimpleDoc(cmds, DocFlavor.BYTE_ARRAY.AUTOSENSE, null);
+        if (cmds == null || cmds.getLength() == 0) { throw new NullCommandException("No commands found to send to the printer"); }
 
         PrintRequestAttributeSet attributes = new HashPrintRequestAttributeSet();
         attributes.add(new JobName(rawOpts.getJobName(Constants.RAW_PRINT), Locale.getDefault()));
 
         DocPrintJob printJob = service.createPrintJob();
 
-        waitForPrint(printJob, doc, attributes);
+        // large jobs were buffered to disk, stream them rather than reading them back into memory
+        if (cmds.isBuffered() && service.isDocFlavorSupported(DocFlavor.INPUT_STREAM.AUTOSENSE)) {
+            try(InputStream stream = cmds.openStream()) {
+                waitForPrint(printJob, new SimpleDoc(stream, DocFlavor.INPUT_STREAM.AUTOSENSE, null), attributes);
+            }
+        } else {
+            waitForPrint(printJob, new SimpleDoc(cmds.getByteArray(), DocFlavor.BYTE_ARRAY.AUTOSENSE, null), attributes);
+        }
     }
 
     protected void waitForPrint(DocPrintJob printJob, Doc doc, PrintRequestAttributeSet attributes) throws PrintException {
@@ -522,6 +628,7 @@ public class PrintRaw implements PrintProcessor {
     public void cleanup() {
         commands.clear();
         destEncoding = null;
+        graphics = null;
     }
 
 }
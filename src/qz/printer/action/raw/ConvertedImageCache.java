@@ -0,0 +1,261 @@
+package qz.printer.action.raw;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codehaus.jettison.json.JSONObject;
+import qz.common.Metrics;
+import qz.utils.ByteUtilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Keeps the printer commands converted from recently printed raw images and PDFs, so printing the same source again
+ * with the same options skips decoding, rendering and conversion entirely.  HTML isn't cached, since the pages,
+ * images and styles it loads can change without its markup changing.
+ * <p>
+ * Entries are keyed by a hash of the source content together with every option affecting the conversion, and the
+ * least recently used are evicted once their total size passes the memory limit.  Optionally, entries are also kept
+ * on disk, so they survive restarts.  The directory is only accessible to the current user, and each file starts
+ * with a checksum of its key and commands, so a damaged or misplaced file is discarded instead of printed.
+ */
+public class ConvertedImageCache {
+
+    private static final Logger log = LogManager.getLogger(ConvertedImageCache.class);
+
+    private static final Metrics.Counter hits = Metrics.counter("imageCache.hits");
+    private static final Metrics.Counter diskHits = Metrics.counter("imageCache.diskHits");
+    private static final Metrics.Counter misses = Metrics.counter("imageCache.misses");
+
+    private static final int CHECKSUM_LENGTH = 32;
+
+    // entries are kept in order of use, least recent first
+    private static final LinkedHashMap<String,byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private static long memoryBytes = 0;
+
+    private static long memoryLimit = 32 * 1024 * 1024;
+    private static long diskLimit = 0;
+    private static Path diskDirectory;
+
+    static {
+        Metrics.gauge("imageCache.bytes", ConvertedImageCache::getMemoryBytes);
+        Metrics.gauge("imageCache.entries", ConvertedImageCache::getEntryCount);
+    }
+
+    /**
+     * @param memoryLimit   Maximum bytes of converted commands held in memory, {@code 0} or less to disable the cache
+     * @param diskLimit     Maximum bytes of converted commands kept on disk, {@code 0} or less to only use memory
+     * @param diskDirectory Where to keep entries on disk
+     */
+    public static synchronized void configure(long memoryLimit, long diskLimit, Path diskDirectory) {
+        ConvertedImageCache.memoryLimit = memoryLimit;
+        ConvertedImageCache.diskLimit = diskLimit;
+        ConvertedImageCache.diskDirectory = null;
+
+        if (memoryLimit > 0 && diskLimit > 0) {
+            try {
+                createPrivateDirectory(diskDirectory);
+                ConvertedImageCache.diskDirectory = diskDirectory;
+            }
+            catch(IOException e) {
+                log.warn("Converted images will not be kept on disk, cannot create {}: {}", diskDirectory, e.getLocalizedMessage());
+            }
+        }
+
+        trimMemory();
+        log.debug("Converted image cache: {} bytes in memory, {} bytes on disk", Math.max(0, memoryLimit), ConvertedImageCache.diskDirectory == null? 0:diskLimit);
+    }
+
+    public static synchronized boolean isEnabled() {
+        return memoryLimit > 0;
+    }
+
+    /**
+     * Builds the key for a source converted with the given options
+     *
+     * @param source   Content of the image or PDF being converted
+     * @param opt      Options of the print data
+     * @param settings Any other settings affecting the conversion (e.g. density, rotation, encoding)
+     */
+    public static String key(byte[] source, JSONObject opt, Object... settings) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(source);
+
+            // options in a fixed order, so the same options always give the same key
+            StringBuilder conversion = new StringBuilder();
+            List<String> keys = new ArrayList<>();
+            for(Iterator<?> it = opt.keys(); it.hasNext(); ) {
+                keys.add(String.valueOf(it.next()));
+            }
+            Collections.sort(keys);
+            for(String key : keys) {
+                conversion.append('\n').append(key).append('=').append(opt.opt(key));
+            }
+            for(Object setting : settings) {
+                conversion.append('\n').append(setting);
+            }
+            digest.update(conversion.toString().getBytes(StandardCharsets.UTF_8));
+
+            return ByteUtilities.bytesToHex(digest.digest(), false);
+        }
+        catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return The converted commands, or {@code null} if they are not cached
+     */
+    public static byte[] get(String key) {
+        synchronized(ConvertedImageCache.class) {
+            byte[] command = entries.get(key);
+            if (command != null) {
+                hits.increment();
+                return command;
+            }
+        }
+
+        Path file = getDiskFile(key);
+        if (file != null && Files.isRegularFile(file)) {
+            try {
+                byte[] entry = Files.readAllBytes(file);
+                byte[] command = entry.length < CHECKSUM_LENGTH? null:Arrays.copyOfRange(entry, CHECKSUM_LENGTH, entry.length);
+                if (command == null || !MessageDigest.isEqual(checksum(key, command), Arrays.copyOf(entry, CHECKSUM_LENGTH))) {
+                    log.warn("Discarding converted image {}, its checksum doesn't match", file);
+                    Files.deleteIfExists(file);
+                } else {
+                    // keep recently used entries from being trimmed
+                    file.toFile().setLastModified(System.currentTimeMillis());
+                    diskHits.increment();
+                    putMemory(key, command);
+                    return command;
+                }
+            }
+            catch(IOException e) {
+                log.warn("Could not read converted image {}: {}", file, e.getLocalizedMessage());
+            }
+        }
+
+        misses.increment();
+        return null;
+    }
+
+    public static void put(String key, byte[] command) {
+        putMemory(key, command);
+
+        Path file = getDiskFile(key);
+        if (file != null && command.length <= diskLimit) {
+            try {
+                Path temp = Files.createTempFile(file.getParent(), key, ".tmp");
+                Files.write(temp, checksum(key, command));
+                Files.write(temp, command, StandardOpenOption.APPEND);
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                trimDisk(file.getParent());
+            }
+            catch(IOException e) {
+                log.warn("Could not keep converted image on disk: {}", e.getLocalizedMessage());
+            }
+        }
+    }
+
+    private static byte[] checksum(String key, byte[] command) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(key.getBytes(StandardCharsets.UTF_8));
+            digest.update(command);
+
+            return digest.digest();
+        }
+        catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Creates {@code directory} if missing, and makes sure only the current user can read or write it
+     */
+    private static void createPrivateDirectory(Path directory) throws IOException {
+        if (Files.isSymbolicLink(directory)) {
+            throw new IOException("Refusing to use a symbolic link");
+        }
+
+        if (!FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            // the user directory on Windows already inherits access from the user's profile
+            Files.createDirectories(directory);
+            return;
+        }
+
+        Set<PosixFilePermission> ownerOnly = PosixFilePermissions.fromString("rwx------");
+        if (!Files.isDirectory(directory)) {
+            Files.createDirectories(directory.getParent());
+            Files.createDirectory(directory, PosixFilePermissions.asFileAttribute(ownerOnly));
+        }
+        // also fails unless we own it, and covers a directory created earlier or a umask removing permissions
+        Files.setPosixFilePermissions(directory, ownerOnly);
+    }
+
+    public static synchronized void clear() {
+        entries.clear();
+        memoryBytes = 0;
+    }
+
+    private static synchronized void putMemory(String key, byte[] command) {
+        // a single huge entry would push out everything else
+        if (command.length > memoryLimit / 4) {
+            return;
+        }
+
+        byte[] previous = entries.put(key, command);
+        memoryBytes += command.length - (previous == null? 0:previous.length);
+        trimMemory();
+    }
+
+    private static synchronized void trimMemory() {
+        Iterator<byte[]> it = entries.values().iterator();
+        while(memoryBytes > Math.max(0, memoryLimit) && it.hasNext()) {
+            memoryBytes -= it.next().length;
+            it.remove();
+        }
+    }
+
+    private static void trimDisk(Path directory) {
+        File[] files = directory.toFile().listFiles((dir, name) -> !name.endsWith(".tmp"));
+        if (files == null) { return; }
+
+        long total = 0;
+        for(File file : files) {
+            total += file.length();
+        }
+        if (total <= diskLimit) { return; }
+
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for(File file : files) {
+            if (total <= diskLimit) { break; }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    private static synchronized Path getDiskFile(String key) {
+        return diskDirectory == null? null:diskDirectory.resolve(key);
+    }
+
+    private static synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    private static synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+}
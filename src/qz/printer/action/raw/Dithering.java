@@ -0,0 +1,182 @@
+package qz.printer.action.raw;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Enum for the dithering methods used when converting raw images to monochrome.
+ * <p>
+ * Every method works on a single row of luma values at a time, in order from top to bottom, and only
+ * keeps the rows it diffuses error into.  Memory use depends on the width of the image, not its height.
+ */
+public enum Dithering {
+
+    NONE("THRESHOLD"),
+    BAYER("ORDERED"),
+    FLOYD_STEINBERG("FLOYD-STEINBERG", "FLOYDSTEINBERG", "FS"),
+    ATKINSON;
+
+
+    private List<String> altNames;
+
+    Dithering(String... altNames) {
+        this.altNames = new ArrayList<>();
+        Collections.addAll(this.altNames, altNames);
+    }
+
+    public static Dithering getType(String type) {
+        String upper = type == null? "":type.toUpperCase(Locale.ENGLISH);
+        for(Dithering dithering : Dithering.values()) {
+            if (dithering.name().equals(upper) || dithering.altNames.contains(upper)) {
+                return dithering;
+            }
+        }
+
+        return NONE;
+    }
+
+    /**
+     * Creates a new quantizer for an image {@code width} pixels wide
+     *
+     * @param threshold Luma (0-255) below which a pixel is considered black, before any dithering
+     */
+    public Quantizer newQuantizer(int width, int threshold) {
+        switch(this) {
+            case BAYER:
+                return new Bayer(threshold);
+            case FLOYD_STEINBERG:
+                return new FloydSteinberg(width, threshold);
+            case ATKINSON:
+                return new Atkinson(width, threshold);
+            case NONE:
+            default:
+                return (row, w) -> {
+                    for(int x = 0; x < w; x++) {
+                        row[x] = row[x] < threshold? 1:0;
+                    }
+                };
+        }
+    }
+
+    public interface Quantizer {
+        /**
+         * Replaces each luma value (0-255) of the next row of the image with {@code 1} for a black dot or {@code 0} for a white one
+         */
+        void quantize(int[] row, int width);
+    }
+
+    /**
+     * Ordered dithering with an 8x8 Bayer matrix.  No error is carried between pixels.
+     */
+    private static class Bayer implements Quantizer {
+        private static final int[][] MATRIX = {
+                {0, 32, 8, 40, 2, 34, 10, 42},
+                {48, 16, 56, 24, 50, 18, 58, 26},
+                {12, 44, 4, 36, 14, 46, 6, 38},
+                {60, 28, 52, 20, 62, 30, 54, 22},
+                {3, 35, 11, 43, 1, 33, 9, 41},
+                {51, 19, 59, 27, 49, 17, 57, 25},
+                {15, 47, 7, 39, 13, 45, 5, 37},
+                {63, 31, 55, 23, 61, 29, 53, 21}
+        };
+
+        private final int bias;
+        private int y;
+
+        Bayer(int threshold) {
+            // the matrix averages out to mid-gray, shift it so the threshold still lightens or darkens the image
+            bias = threshold - 128;
+        }
+
+        @Override
+        public void quantize(int[] row, int width) {
+            int[] thresholds = MATRIX[y++ & 7];
+            for(int x = 0; x < width; x++) {
+                row[x] = row[x] - bias < thresholds[x & 7] * 4 + 2? 1:0;
+            }
+        }
+    }
+
+    /**
+     * Floyd-Steinberg error diffusion, spreading all of the error over the next pixel and the three below it
+     */
+    private static class FloydSteinberg implements Quantizer {
+        private final int threshold;
+        // error in 16ths, offset by one so neighbors at x - 1 and x + 1 are always in range
+        private int[] current;
+        private int[] next;
+
+        FloydSteinberg(int width, int threshold) {
+            this.threshold = threshold;
+            current = new int[width + 2];
+            next = new int[width + 2];
+        }
+
+        @Override
+        public void quantize(int[] row, int width) {
+            for(int x = 0; x < width; x++) {
+                int value = row[x] + current[x + 1] / 16;
+                boolean black = value < threshold;
+                int error = value - (black? 0:255);
+
+                current[x + 2] += error * 7;
+                next[x] += error * 3;
+                next[x + 1] += error * 5;
+                next[x + 2] += error;
+
+                row[x] = black? 1:0;
+            }
+
+            int[] swap = current;
+            current = next;
+            next = swap;
+            Arrays.fill(next, 0);
+        }
+    }
+
+    /**
+     * Atkinson error diffusion, spreading three quarters of the error over two pixels ahead and three rows below,
+     * which keeps highlights and shadows cleaner than Floyd-Steinberg on thermal heads
+     */
+    private static class Atkinson implements Quantizer {
+        private final int threshold;
+        // error in 8ths for this row and the two below it, offset by one so neighbors at x - 1 are in range
+        private int[][] rows;
+
+        Atkinson(int width, int threshold) {
+            this.threshold = threshold;
+            rows = new int[3][width + 3];
+        }
+
+        @Override
+        public void quantize(int[] row, int width) {
+            int[] current = rows[0];
+            int[] below = rows[1];
+            int[] twoBelow = rows[2];
+
+            for(int x = 0; x < width; x++) {
+                int value = row[x] + current[x + 1] / 8;
+                boolean black = value < threshold;
+                int error = value - (black? 0:255);
+
+                current[x + 2] += error;
+                current[x + 3] += error;
+                below[x] += error;
+                below[x + 1] += error;
+                below[x + 2] += error;
+                twoBelow[x + 1] += error;
+
+                row[x] = black? 1:0;
+            }
+
+            Arrays.fill(current, 0);
+            rows[0] = below;
+            rows[1] = twoBelow;
+            rows[2] = current;
+        }
+    }
+
+}
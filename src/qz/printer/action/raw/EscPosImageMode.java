@@ -0,0 +1,30 @@
+package qz.printer.action.raw;
+
+import java.util.Locale;
+
+/**
+ * Enum for the ESC/POS commands used to print a raw image.
+ * <ul>
+ * <li><code>COLUMN</code>: {@code ESC *} bit images, one 8 or 24 dot tall slice of columns at a time</li>
+ * <li><code>RASTER</code>: {@code GS v 0} raster bit images, whole bands of rows at a time</li>
+ * <li><code>GRAPHICS</code>: {@code GS ( L} graphics stored in the print buffer and then printed, for printers that no longer support {@code GS v 0}</li>
+ * </ul>
+ */
+public enum EscPosImageMode {
+
+    COLUMN, RASTER, GRAPHICS;
+
+
+    public static EscPosImageMode getType(String type) {
+        if (type != null) {
+            for(EscPosImageMode mode : EscPosImageMode.values()) {
+                if (mode.name().equals(type.toUpperCase(Locale.ENGLISH))) {
+                    return mode;
+                }
+            }
+        }
+
+        return COLUMN;
+    }
+
+}
@@ -0,0 +1,183 @@
+package qz.printer.action.raw;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import qz.common.Constants;
+import qz.utils.ByteUtilities;
+import qz.utils.FileUtilities;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Remembers which raw images have been stored on each printer, by a hash of their converted content, so that
+ * later jobs can recall a stored graphic by name instead of sending the whole bitmap again.
+ * <p>
+ * Graphics are only remembered once the job that downloaded them has been sent, and the cache is kept in
+ * {@value Constants#GRAPHICS_FILE}.properties so it survives restarts.  If a printer loses its stored graphics
+ * (e.g. it is reset or its memory is cleared), its entries must be cleared with {@link #clear(String)}.
+ */
+public class GraphicCache {
+
+    private static final Logger log = LogManager.getLogger(GraphicCache.class);
+
+    private static final String SEPARATOR = "|";
+
+    private static Properties stored;
+
+    /**
+     * Hashes everything that affects how a graphic prints
+     */
+    public static String hash(LanguageType languageType, int width, int height, byte[] data) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((languageType + SEPARATOR + width + SEPARATOR + height + SEPARATOR).getBytes(StandardCharsets.UTF_8));
+            digest.update(data);
+            return ByteUtilities.bytesToHex(digest.digest());
+        }
+        catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Starts tracking the graphics downloaded by a new job to {@code destination}
+     */
+    public static Job begin(String destination) {
+        return new Job(destination);
+    }
+
+    /**
+     * Forgets every graphic stored on {@code destination}, or on every printer if {@code null}
+     */
+    public static synchronized void clear(String destination) {
+        Properties cache = getStored();
+        if (destination == null) {
+            cache.clear();
+        } else {
+            cache.keySet().removeIf(key -> key.toString().startsWith(destination + SEPARATOR));
+        }
+        log.info("Cleared stored graphics for {}", destination == null? "all printers":destination);
+        save();
+    }
+
+    private static synchronized String find(String destination, String hash) {
+        return getStored().getProperty(destination + SEPARATOR + hash);
+    }
+
+    private static synchronized boolean isNameUsed(String destination, String name) {
+        for(Map.Entry<Object,Object> entry : getStored().entrySet()) {
+            if (entry.getValue().equals(name) && entry.getKey().toString().startsWith(destination + SEPARATOR)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static synchronized void store(String destination, Map<String,String> graphics) {
+        Properties cache = getStored();
+        for(Map.Entry<String,String> graphic : graphics.entrySet()) {
+            // a download replaces whatever was stored under the same name
+            cache.entrySet().removeIf(entry -> entry.getValue().equals(graphic.getValue()) && entry.getKey().toString().startsWith(destination + SEPARATOR));
+            cache.setProperty(destination + SEPARATOR + graphic.getKey(), graphic.getValue());
+        }
+        save();
+    }
+
+    private static Properties getStored() {
+        if (stored == null) {
+            stored = new Properties();
+            File file = getFile();
+            if (file.exists()) {
+                try(InputStream in = new FileInputStream(file)) {
+                    stored.load(in);
+                }
+                catch(IOException e) {
+                    log.warn("Could not load stored graphics from {}, reason: {}", file, e.getLocalizedMessage());
+                }
+            }
+        }
+
+        return stored;
+    }
+
+    private static void save() {
+        File file = getFile();
+        try(OutputStream out = new FileOutputStream(file)) {
+            stored.store(out, "Graphics stored on printers, by content hash");
+        }
+        catch(IOException e) {
+            log.error("Error saving stored graphics to {}", file, e);
+        }
+    }
+
+    private static File getFile() {
+        return FileUtilities.USER_DIR.resolve(Constants.GRAPHICS_FILE + ".properties").toFile();
+    }
+
+    /**
+     * The graphics downloaded while building a single job.  They only become part of the cache once the job has
+     * been sent with {@link #commit()}; if it fails, they are sent again next time.
+     */
+    public static class Job {
+        private final String destination;
+        private final Map<String,String> downloaded = new LinkedHashMap<>();
+
+        private Job(String destination) {
+            this.destination = destination;
+        }
+
+        /**
+         * @return The name the graphic is stored under, or {@code null} if it must be downloaded
+         */
+        public String find(String hash) {
+            if (downloaded.containsKey(hash)) {
+                return downloaded.get(hash);
+            }
+
+            // ignore anything this job has already replaced
+            String name = GraphicCache.find(destination, hash);
+            return downloaded.containsValue(name)? null:name;
+        }
+
+        /**
+         * Records a graphic downloaded by this job under a given name
+         */
+        public void add(String hash, String name) {
+            downloaded.values().remove(name);
+            downloaded.put(hash, name);
+        }
+
+        /**
+         * Records a graphic downloaded by this job, naming it {@code prefix} followed by part of the hash so the name
+         * is {@code length} characters long, without reusing a name already stored on the printer
+         *
+         * @return The name chosen
+         */
+        public String add(String hash, String prefix, int length) {
+            int digits = length - prefix.length();
+            for(int i = 0; i + digits <= hash.length(); i++) {
+                String name = prefix + hash.substring(i, i + digits);
+                if (!downloaded.containsValue(name) && !isNameUsed(destination, name)) {
+                    add(hash, name);
+                    return name;
+                }
+            }
+
+            throw new IllegalStateException("No unused graphic name left for " + destination);
+        }
+
+        public void commit() {
+            if (!downloaded.isEmpty()) {
+                log.debug("Stored {} graphic(s) on {}", downloaded.size(), destination);
+                store(destination, downloaded);
+                downloaded.clear();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,261 @@
+package qz.printer.action.raw;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import qz.common.Metrics;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps connections to network printers (e.g. port 9100) open between raw jobs, so consecutive jobs to the same
+ * host and port reuse a connection instead of connecting again for each one.
+ * <p>
+ * Every page and copy of a single job is always sent over one connection.  Connections are only kept open after a
+ * job when a keep-alive time is configured, since some printers only finish a job once its connection is closed.
+ * Idle connections are checked before reuse and closed once idle for longer than the keep-alive time.
+ */
+public class HostConnectionPool {
+
+    private static final Logger log = LogManager.getLogger(HostConnectionPool.class);
+
+    private static final long EVICT_INTERVAL = 5; // seconds
+    private static final int MAX_IDLE_PER_HOST = 2;
+
+    private static final Metrics.Counter opened = Metrics.counter("hostConnections.opened");
+    private static final Metrics.Counter reused = Metrics.counter("hostConnections.reused");
+
+    private static final Map<String,Deque<Connection>> idle = new HashMap<>();
+
+    private static int connectTimeout = 10000;
+    private static int writeTimeout = 0;
+    private static long keepAliveMillis = 0;
+    private static ScheduledExecutorService evictor;
+
+    static {
+        Metrics.gauge("hostConnections.idle", HostConnectionPool::getIdleCount);
+    }
+
+    /**
+     * @param connectTimeout   Milliseconds to wait for a connection, {@code 0} to wait indefinitely
+     * @param writeTimeout     Milliseconds to wait for the printer to accept more data, {@code 0} to wait indefinitely
+     * @param keepAliveSeconds Seconds to keep a connection open after a job for the next one, {@code 0} to close it after every job
+     */
+    public static synchronized void configure(int connectTimeout, int writeTimeout, int keepAliveSeconds) {
+        HostConnectionPool.connectTimeout = Math.max(0, connectTimeout);
+        HostConnectionPool.writeTimeout = Math.max(0, writeTimeout);
+        HostConnectionPool.keepAliveMillis = TimeUnit.SECONDS.toMillis(Math.max(0, keepAliveSeconds));
+
+        if (evictor != null) {
+            evictor.shutdownNow();
+            evictor = null;
+        }
+        if (keepAliveMillis > 0) {
+            evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "qz-host-evictor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            evictor.scheduleWithFixedDelay(HostConnectionPool::evictIdle, EVICT_INTERVAL, EVICT_INTERVAL, TimeUnit.SECONDS);
+        } else {
+            closeAll();
+        }
+    }
+
+    /**
+     * Takes a healthy idle connection to {@code host:port}, or opens a new one
+     */
+    public static Connection borrow(String host, int port) throws IOException {
+        String key = host + ":" + port;
+
+        Connection connection;
+        while((connection = pollIdle(key)) != null) {
+            if (connection.isHealthy()) {
+                log.debug("Reusing connection to {}", key);
+                reused.increment();
+                return connection;
+            }
+            connection.close();
+        }
+
+        log.debug("Connecting to {}", key);
+        opened.increment();
+        return new Connection(key, new InetSocketAddress(host, port));
+    }
+
+    /**
+     * Returns a connection after a job was sent over it, keeping it open for the next job if configured to
+     */
+    public static void release(Connection connection) {
+        synchronized(HostConnectionPool.class) {
+            if (keepAliveMillis > 0 && connection.isOpen()) {
+                Deque<Connection> connections = idle.computeIfAbsent(connection.key, k -> new ArrayDeque<>());
+                if (connections.size() < MAX_IDLE_PER_HOST) {
+                    connection.lastUsed = System.currentTimeMillis();
+                    connections.push(connection);
+                    return;
+                }
+            }
+        }
+
+        connection.close();
+    }
+
+    private static synchronized Connection pollIdle(String key) {
+        Deque<Connection> connections = idle.get(key);
+        return connections == null? null:connections.poll();
+    }
+
+    private static void evictIdle() {
+        long now = System.currentTimeMillis();
+        synchronized(HostConnectionPool.class) {
+            for(Iterator<Deque<Connection>> hosts = idle.values().iterator(); hosts.hasNext(); ) {
+                Deque<Connection> connections = hosts.next();
+                for(Iterator<Connection> it = connections.iterator(); it.hasNext(); ) {
+                    Connection connection = it.next();
+                    if (now - connection.lastUsed > keepAliveMillis || !connection.isHealthy()) {
+                        log.debug("Closing idle connection to {}", connection.key);
+                        it.remove();
+                        connection.close();
+                    }
+                }
+                if (connections.isEmpty()) {
+                    hosts.remove();
+                }
+            }
+        }
+    }
+
+    private static synchronized void closeAll() {
+        for(Deque<Connection> connections : idle.values()) {
+            for(Connection connection : connections) {
+                connection.close();
+            }
+        }
+        idle.clear();
+    }
+
+    private static synchronized int getIdleCount() {
+        int count = 0;
+        for(Deque<Connection> connections : idle.values()) {
+            count += connections.size();
+        }
+
+        return count;
+    }
+
+    /**
+     * A non-blocking connection to a printer, written to with gathering writes or straight from a file, each with the
+     * configured write timeout
+     */
+    public static class Connection implements Closeable {
+        private final String key;
+        private final SocketChannel channel;
+        private final Selector selector;
+        private final int timeout;
+        private long lastUsed;
+
+        private Connection(String key, InetSocketAddress address) throws IOException {
+            this.key = key;
+            this.timeout = writeTimeout;
+
+            SocketChannel channel = SocketChannel.open();
+            try {
+                channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+                channel.socket().connect(address, connectTimeout);
+                channel.configureBlocking(false);
+                selector = Selector.open();
+                channel.register(selector, SelectionKey.OP_WRITE);
+            }
+            catch(IOException e) {
+                channel.close();
+                throw e;
+            }
+            this.channel = channel;
+        }
+
+        /**
+         * Writes every buffer in order, handing them all to the socket at once rather than one at a time
+         */
+        public void write(ByteBuffer... buffers) throws IOException {
+            int first = 0;
+            while(first < buffers.length) {
+                if (!buffers[first].hasRemaining()) {
+                    first++;
+                } else if (channel.write(buffers, first, buffers.length - first) == 0) {
+                    awaitWritable();
+                }
+            }
+        }
+
+        /**
+         * Sends {@code count} bytes of {@code file} from {@code position}, letting the OS copy them straight to the socket
+         */
+        public void write(FileChannel file, long position, long count) throws IOException {
+            while(count > 0) {
+                long sent = file.transferTo(position, count, channel);
+                if (sent == 0) {
+                    if (position >= file.size()) { throw new EOFException("File ended before " + count + " more bytes were sent to " + key); }
+                    awaitWritable();
+                }
+                position += sent;
+                count -= sent;
+            }
+        }
+
+        private void awaitWritable() throws IOException {
+            // printer isn't accepting data yet (e.g. busy or out of media)
+            if (selector.select(timeout) == 0 && timeout > 0) {
+                throw new SocketTimeoutException("Timed out after " + timeout + "ms writing to " + key);
+            }
+            selector.selectedKeys().clear();
+        }
+
+        boolean isOpen() {
+            return channel.isOpen() && channel.isConnected();
+        }
+
+        /**
+         * Checks the printer hasn't closed its end, discarding anything it sent back (e.g. status replies)
+         */
+        boolean isHealthy() {
+            if (!isOpen()) { return false; }
+
+            try {
+                ByteBuffer discard = ByteBuffer.allocate(256);
+                int read;
+                while((read = channel.read(discard)) > 0) {
+                    discard.clear();
+                }
+                return read == 0;
+            }
+            catch(IOException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public void close() {
+            try { selector.close(); } catch(IOException ignore) {}
+            try { channel.close(); } catch(IOException ignore) {}
+        }
+    }
+
+}
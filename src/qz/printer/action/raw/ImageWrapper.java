@@ -15,18 +15,19 @@ import org.codehaus.jettison.json.JSONObject;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import qz.common.ByteArrayBuilder;
+import qz.common.Constants;
 import qz.exception.InvalidRawImageException;
-import qz.utils.ByteUtilities;
 
 import javax.imageio.ImageIO;
 import java.awt.*;
-import java.awt.image.BufferedImage;
+import java.awt.image.*;
 import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
  * Abstract wrapper for images to be printed with thermal printers.
@@ -51,6 +52,13 @@ public class ImageWrapper {
 
     private static final Logger log = LogManager.getLogger(ImageWrapper.class);
 
+    // checked against the charset before writing generated ASCII (hex, base64, etc) as-is
+    private static final String ASCII_SAMPLE_TEXT = Constants.HEXES + "GHIJKLMNOPQRSTUVWXYZghijklmnopqrstuvwxyz+/=:,!";
+    private static final byte[] ASCII_SAMPLE = ASCII_SAMPLE_TEXT.getBytes(StandardCharsets.US_ASCII);
+
+    // rows per ESC/POS raster command, small enough for the receive buffer of most printers
+    private static final int RASTER_BAND_ROWS = 256;
+
     /**
      * Represents the CHECK_BLACK quantization method, where only fully black
      * pixels are considered black when translating them to printer format.
@@ -71,18 +79,19 @@ public class ImageWrapper {
     public static final int CHECK_ALPHA = 2;
 
     private int lumaThreshold = 127;
-    private boolean[] imageAsBooleanArray;        //Image representation as an array of boolean, with true values representing imageAsBooleanArray dots
-    private int[] imageAsIntArray;                //Image representation as an array of ints, with each bit representing a imageAsBooleanArray dot
+    private byte[] imageAsPackedBits;             //Image representation as an array of bytes, with each bit representing a dot, row by row
     private ByteArrayBuilder byteBuffer = new ByteArrayBuilder();
     private int alphaThreshold = 127;
     private BufferedImage bufferedImage;
     private LanguageType languageType;
     private Charset charset = Charset.defaultCharset();
     private int imageQuantizationMethod = CHECK_LUMA;
+    private Dithering dithering = Dithering.NONE;
     private int xPos = 0;   // X coordinate used for EPL2, CPCL.  Irrelevant for ZPLII, ESC/POS, etc
     private int yPos = 0;   // Y coordinate used for EPL2, CPCL.  Irrelevant for ZPLII, ESC/POS, etc
     private String logoId = "";  // PGL only, the logo ID
     private boolean igpDots = false; // PGL only, toggle IGP/PGL default resolution of 72dpi
+    private GraphicCache.Job graphicCache = null; // Graphics already stored on the printer, null to always send the whole image.  ZPL and PGL only
     private int dotDensity = 32;  // Generally 32 = Single (normal) 33 = Double (higher res) for ESC/POS.  Irrelevant for all other languages.
 
     private boolean legacyMode = false; // Use newlines for ESC/POS spacing; simulates <=2.0.11 behavior
@@ -99,7 +108,6 @@ public class ImageWrapper {
         this.languageType = languageType;
         log.info("Loading BufferedImage");
         log.info("Dimensions: {}x{}", bufferedImage.getWidth(), bufferedImage.getHeight());
-        init();
 
         if (languageType.requiresImageWidthValidated()) {
             validateImageWidth();
@@ -128,6 +136,7 @@ public class ImageWrapper {
      */
     public void setLumaThreshold(int lumaThreshold) {
         this.lumaThreshold = lumaThreshold;
+        setImageAsPackedBits(null);
     }
 
     /**
@@ -170,6 +179,7 @@ public class ImageWrapper {
      */
     public void setImageQuantizationMethod(int imageQuantizationMethod) {
         this.imageQuantizationMethod = imageQuantizationMethod;
+        setImageAsPackedBits(null);
     }
 
     /**
@@ -194,6 +204,23 @@ public class ImageWrapper {
      */
     public void setAlphaThreshold(int alphaThreshold) {
         this.alphaThreshold = alphaThreshold;
+        setImageAsPackedBits(null);
+    }
+
+    public Dithering getDithering() {
+        return dithering;
+    }
+
+    /**
+     * Sets the dithering used to convert the image to monochrome.  Anything other than
+     * <code>NONE</code> dithers the luma of each pixel, as printed on white media, in place of the
+     * quantization method.  The luma threshold still lightens or darkens the result.
+     *
+     * @param dithering the dithering to use
+     */
+    public void setDithering(Dithering dithering) {
+        this.dithering = dithering;
+        setImageAsPackedBits(null);
     }
 
     public int getDotDensity() {
@@ -221,6 +248,19 @@ public class ImageWrapper {
         return igpDots;
     }
 
+    /**
+     * Recalls images already stored on the printer by name, and stores new ones before printing them.  ZPL and PGL only.
+     *
+     * @param graphicCache Graphics stored by the job, or {@code null} to always send the whole image
+     */
+    public void setGraphicCache(GraphicCache.Job graphicCache) {
+        this.graphicCache = graphicCache;
+    }
+
+    public GraphicCache.Job getGraphicCache() {
+        return graphicCache;
+    }
+
     public int getxPos() {
         return xPos;
     }
@@ -247,12 +287,10 @@ public class ImageWrapper {
      * @return true if the pixel should be black, false otherwise
      */
     private boolean isBlack(int rgbPixel) {
-        Color color = new Color(rgbPixel, true);
-
-        int r = color.getRed();
-        int g = color.getGreen();
-        int b = color.getBlue();
-        int a = color.getAlpha();
+        int a = (rgbPixel >>> 24);
+        int r = (rgbPixel >> 16) & 0xFF;
+        int g = (rgbPixel >> 8) & 0xFF;
+        int b = rgbPixel & 0xFF;
         switch(getImageQuantizationMethod()) {
             case CHECK_LUMA:
                 if (a < getLumaThreshold()) {
@@ -265,20 +303,23 @@ public class ImageWrapper {
                 return a > getAlphaThreshold(); //pixels that are more opaque than the threshold are black
             case CHECK_BLACK: //only fully black pixels are black
             default:
-                return color.equals(Color.BLACK); //The default
+                return rgbPixel == 0xFF000000; //The default, opaque black
 
         }
     }
 
     /**
-     * Sets ImageAsBooleanArray. boolean is used instead of int for memory
-     * considerations.
+     * Converts the image to monochrome, packing each dot directly into a bit of the returned array
+     * (row by row, most significant bit first) without an intermediate copy of the pixels.
+     * <p/>
+     * Common image types are read straight from their raster, in parallel bands of rows for large images.
+     * Anything else is converted a row at a time on the calling thread.
      */
-    private boolean[] generateBlackPixels(BufferedImage bi) {
-        log.info("Converting image to monochrome");
+    private byte[] generateBlackPixels(BufferedImage bi, Dithering dithering) {
+        log.debug("Converting image to monochrome");
         int h = bi.getHeight();
         int w = bi.getWidth();
-        int[] rgbPixels = bi.getRGB(0, 0, w, h, null, 0, w);
+        byte[] packed = new byte[(int)(((long)w * h + 7) / 8)];
 
         /*
          * It makes most sense to have black pixels as 1's and white pixels
@@ -287,40 +328,233 @@ public class ImageWrapper {
          * uses 0's for black pixels.
          * See also: https://support.zebra.com/cpws/docs/eltron/gw_command.htm
          */
-        boolean[] pixels = new boolean[rgbPixels.length];
-        for(int i = 0; i < rgbPixels.length; i++) {
-            pixels[i] = languageType.requiresImageOutputInverted() != isBlack(rgbPixels[i]);
+        boolean invert = languageType.requiresImageOutputInverted();
+
+        if (dithering != Dithering.NONE) {
+            // diffused error depends on the rows above, so dithering always runs in order on this thread
+            Dithering.Quantizer quantizer = dithering.newQuantizer(w, getLumaThreshold());
+            int[] row = new int[w];
+            int i = 0;
+            for(int y = 0; y < h; y++) {
+                bi.getRGB(0, y, w, 1, row, 0, w);
+                for(int x = 0; x < w; x++) {
+                    row[x] = luma(row[x]);
+                }
+                quantizer.quantize(row, w);
+                for(int x = 0; x < w; x++, i++) {
+                    if (invert != (row[x] == 1)) {
+                        packed[i >> 3] |= (byte)(0x80 >>> (i & 7));
+                    }
+                }
+            }
+
+            return packed;
+        }
+
+        RowBands.Band band = getRasterBand(bi, packed, invert);
+        if (band != null) {
+            // bands start on a multiple of 8 rows, so no two share an output byte
+            RowBands.process(w, h, 8, band);
+            return packed;
+        }
+
+        // other image types need color conversion, reuse a single row for it
+        int[] row = new int[w];
+        int i = 0;
+        for(int y = 0; y < h; y++) {
+            bi.getRGB(0, y, w, 1, row, 0, w);
+            for(int x = 0; x < w; x++, i++) {
+                if (invert != isBlack(row[x])) {
+                    packed[i >> 3] |= (byte)(0x80 >>> (i & 7));
+                }
+            }
         }
 
-        return pixels;
+        return packed;
     }
 
     /**
-     * Converts the internal representation of the image into an array of bytes,
-     * suitable to be sent to a raw printer.
-     *
-     * @return The raw bytes that compose the image
+     * @return A band which converts rows read directly from the raster of {@code bi} into {@code packed},
+     * or {@code null} if the image type isn't supported for direct reads
      */
-    private byte[] getBytes() {
-        log.info("Generating byte array");
-        int[] ints = getImageAsIntArray();
-        byte[] bytes = new byte[ints.length];
-        for(int i = 0; i < ints.length; i++) {
-            bytes[i] = (byte)ints[i];
+    private RowBands.Band getRasterBand(BufferedImage bi, byte[] packed, boolean invert) {
+        int w = bi.getWidth();
+
+        WritableRaster raster = bi.getRaster();
+        DataBuffer buffer = raster.getDataBuffer();
+        SampleModel model = raster.getSampleModel();
+        int tx = raster.getSampleModelTranslateX();
+        int ty = raster.getSampleModelTranslateY();
+
+        switch(bi.getType()) {
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_INT_RGB:
+                if (buffer instanceof DataBufferInt && buffer.getNumBanks() == 1 && model instanceof SinglePixelPackedSampleModel) {
+                    int[] data = ((DataBufferInt)buffer).getData();
+                    int stride = ((SinglePixelPackedSampleModel)model).getScanlineStride();
+                    int opaque = bi.getType() == BufferedImage.TYPE_INT_RGB? 0xFF000000:0;
+
+                    return (fromY, toY) -> {
+                        int i = fromY * w;
+                        for(int y = fromY; y < toY; y++) {
+                            int offset = buffer.getOffset() + (y - ty) * stride - tx;
+                            for(int x = 0; x < w; x++, i++) {
+                                if (invert != isBlack(data[offset + x] | opaque)) {
+                                    packed[i >> 3] |= (byte)(0x80 >>> (i & 7));
+                                }
+                            }
+                        }
+                    };
+                }
+                break;
+            case BufferedImage.TYPE_4BYTE_ABGR:
+            case BufferedImage.TYPE_3BYTE_BGR:
+                if (buffer instanceof DataBufferByte && buffer.getNumBanks() == 1 && model instanceof PixelInterleavedSampleModel) {
+                    byte[] data = ((DataBufferByte)buffer).getData();
+                    PixelInterleavedSampleModel interleaved = (PixelInterleavedSampleModel)model;
+                    int stride = interleaved.getScanlineStride();
+                    int pixelStride = interleaved.getPixelStride();
+                    int[] bands = interleaved.getBandOffsets(); // r, g, b[, a]
+                    boolean alpha = bands.length > 3;
+
+                    return (fromY, toY) -> {
+                        int i = fromY * w;
+                        for(int y = fromY; y < toY; y++) {
+                            int offset = buffer.getOffset() + (y - ty) * stride - tx * pixelStride;
+                            for(int x = 0; x < w; x++, i++, offset += pixelStride) {
+                                int argb = (alpha? (data[offset + bands[3]] & 0xFF) << 24:0xFF000000)
+                                        | (data[offset + bands[0]] & 0xFF) << 16
+                                        | (data[offset + bands[1]] & 0xFF) << 8
+                                        | (data[offset + bands[2]] & 0xFF);
+                                if (invert != isBlack(argb)) {
+                                    packed[i >> 3] |= (byte)(0x80 >>> (i & 7));
+                                }
+                            }
+                        }
+                    };
+                }
+                break;
+            case BufferedImage.TYPE_BYTE_GRAY:
+                if (buffer instanceof DataBufferByte && buffer.getNumBanks() == 1 && model instanceof ComponentSampleModel) {
+                    byte[] data = ((DataBufferByte)buffer).getData();
+                    ComponentSampleModel component = (ComponentSampleModel)model;
+                    int stride = component.getScanlineStride();
+                    int pixelStride = component.getPixelStride();
+                    int band = component.getBandOffsets()[0];
+
+                    // only 256 possible shades, convert each of them once
+                    boolean[] dots = new boolean[256];
+                    ColorModel colorModel = bi.getColorModel();
+                    for(int v = 0; v < dots.length; v++) {
+                        dots[v] = invert != isBlack(colorModel.getRGB(v));
+                    }
+
+                    return (fromY, toY) -> {
+                        int i = fromY * w;
+                        for(int y = fromY; y < toY; y++) {
+                            int offset = buffer.getOffset() + (y - ty) * stride - tx * pixelStride + band;
+                            for(int x = 0; x < w; x++, i++, offset += pixelStride) {
+                                if (dots[data[offset] & 0xFF]) {
+                                    packed[i >> 3] |= (byte)(0x80 >>> (i & 7));
+                                }
+                            }
+                        }
+                    };
+                }
+                break;
         }
 
-        return bytes;
+        return null;
     }
 
-    private void generateIntArray() {
-        log.info("Packing bits");
-        imageAsIntArray = new int[imageAsBooleanArray.length / 8];
-        // Convert every eight zero's to a full byte, in decimal
-        for(int i = 0; i < imageAsIntArray.length; i++) {
-            for(int k = 0; k < 8; k++) {
-                imageAsIntArray[i] += (imageAsBooleanArray[8 * i + k]? 1:0) << 7 - k;
-            }
+    /**
+     * Reads a row of pixels as ARGB, like {@link BufferedImage#getRGB(int, int, int, int, int[], int, int)}
+     */
+    private interface RowReader {
+        void read(int y, int[] row);
+    }
+
+    /**
+     * @return A reader of rows directly from the raster of {@code bi}, safe to use from several threads at once,
+     * or {@code null} if the image type isn't supported for direct reads
+     */
+    private static RowReader getRowReader(BufferedImage bi) {
+        int w = bi.getWidth();
+
+        WritableRaster raster = bi.getRaster();
+        DataBuffer buffer = raster.getDataBuffer();
+        SampleModel model = raster.getSampleModel();
+        int tx = raster.getSampleModelTranslateX();
+        int ty = raster.getSampleModelTranslateY();
+
+        switch(bi.getType()) {
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_INT_RGB:
+                if (buffer instanceof DataBufferInt && buffer.getNumBanks() == 1 && model instanceof SinglePixelPackedSampleModel) {
+                    int[] data = ((DataBufferInt)buffer).getData();
+                    int stride = ((SinglePixelPackedSampleModel)model).getScanlineStride();
+                    int opaque = bi.getType() == BufferedImage.TYPE_INT_RGB? 0xFF000000:0;
+
+                    return (y, row) -> {
+                        int offset = buffer.getOffset() + (y - ty) * stride - tx;
+                        for(int x = 0; x < w; x++) {
+                            row[x] = data[offset + x] | opaque;
+                        }
+                    };
+                }
+                break;
+            case BufferedImage.TYPE_4BYTE_ABGR:
+            case BufferedImage.TYPE_3BYTE_BGR:
+                if (buffer instanceof DataBufferByte && buffer.getNumBanks() == 1 && model instanceof PixelInterleavedSampleModel) {
+                    byte[] data = ((DataBufferByte)buffer).getData();
+                    PixelInterleavedSampleModel interleaved = (PixelInterleavedSampleModel)model;
+                    int stride = interleaved.getScanlineStride();
+                    int pixelStride = interleaved.getPixelStride();
+                    int[] bands = interleaved.getBandOffsets(); // r, g, b[, a]
+                    boolean alpha = bands.length > 3;
+
+                    return (y, row) -> {
+                        int offset = buffer.getOffset() + (y - ty) * stride - tx * pixelStride;
+                        for(int x = 0; x < w; x++, offset += pixelStride) {
+                            row[x] = (alpha? (data[offset + bands[3]] & 0xFF) << 24:0xFF000000)
+                                    | (data[offset + bands[0]] & 0xFF) << 16
+                                    | (data[offset + bands[1]] & 0xFF) << 8
+                                    | (data[offset + bands[2]] & 0xFF);
+                        }
+                    };
+                }
+                break;
         }
+
+        return null;
+    }
+
+    /**
+     * @return the luma (0-255) of {@code argb} as it would appear printed on white media
+     */
+    private static int luma(int argb) {
+        int a = argb >>> 24;
+        int luma = (((argb >> 16) & 0xFF) * 299 + ((argb >> 8) & 0xFF) * 587 + (argb & 0xFF) * 114) / 1000;
+        return (luma * a + 255 * (255 - a)) / 255;
+    }
+
+    /**
+     * @return whether the dot at {@code index} of the packed image {@code bits} is set
+     */
+    private static boolean isDot(byte[] bits, int index) {
+        return (bits[index >> 3] & (0x80 >>> (index & 7))) != 0;
+    }
+
+    /**
+     * Returns the internal representation of the image as an array of bytes,
+     * suitable to be sent to a raw printer.  Any dots past the last full byte are dropped.
+     *
+     * @return The raw bytes that compose the image
+     */
+    private byte[] getBytes() {
+        int length = getWidth() * getHeight() / 8;
+        byte[] packed = getImageAsPackedBits();
+        return length == packed.length? packed:Arrays.copyOf(packed, length);
     }
 
     /**
@@ -335,17 +569,43 @@ public class ImageWrapper {
 
         switch(languageType) {
             case ESCP:
-                appendEpsonSlices(getByteBuffer());
+                EscPosImageMode mode = EscPosImageMode.getType(opt.optString("imageMode", null));
+                if (mode == EscPosImageMode.COLUMN) {
+                    appendEpsonSlices(getByteBuffer());
+                } else {
+                    boolean compress = !"none".equalsIgnoreCase(opt.optString("compression", "none"));
+                    appendEpsonRaster(getByteBuffer(), mode, compress);
+                }
                 break;
             case ZPL:
-                String zplHexAsString = ByteUtilities.getHexString(getImageAsIntArray());
-                int byteLen = zplHexAsString.length() / 2;
+                byte[] zplBytes = getBytes();
+                int byteLen = zplBytes.length;
                 int perRow = byteLen / getHeight();
+                ZplCompression compression = ZplCompression.getType(opt.optString("compression", null));
+
+                if (graphicCache != null) {
+                    String hash = GraphicCache.hash(languageType, getWidth(), getHeight(), zplBytes);
+                    String name = graphicCache.find(hash);
+                    if (name == null) {
+                        // store in flash, so it is still there after the printer restarts
+                        name = graphicCache.add(hash, "QZ", 8);
+                        StringBuilder download = new StringBuilder("~DGE:").append(name).append(".GRF,")
+                                .append(byteLen).append(",").append(perRow).append(",");
+
+                        getByteBuffer().append(download, charset);
+                        appendAscii(getByteBuffer(), compression.encode(zplBytes, perRow));
+                    }
+
+                    getByteBuffer().append(new StringBuilder("^XGE:").append(name).append(".GRF,1,1"), charset);
+                    break;
+                }
+
                 StringBuilder zpl = new StringBuilder("^GFA,")
                         .append(byteLen).append(",").append(byteLen).append(",")
-                        .append(perRow).append(",").append(zplHexAsString);
+                        .append(perRow).append(",");
 
                 getByteBuffer().append(zpl, charset);
+                appendAscii(getByteBuffer(), compression.encode(zplBytes, perRow));
                 break;
             case EPL:
                 StringBuilder epl = new StringBuilder("GW")
@@ -357,49 +617,34 @@ public class ImageWrapper {
                 getByteBuffer().append(epl, charset).append(getBytes()).append(new byte[] {10});
                 break;
             case CPCL:
-                String cpclHexAsString = ByteUtilities.getHexString(getImageAsIntArray());
                 StringBuilder cpcl = new StringBuilder("EG ")
                         .append(getWidth() / 8).append(" ")
                         .append(getHeight()).append(" ")
                         .append(getxPos()).append(" ")
-                        .append(getyPos()).append(" ")
-                        .append(cpclHexAsString);
+                        .append(getyPos()).append(" ");
 
-                getByteBuffer().append(cpcl, charset).append(new byte[] {13, 10});
+                getByteBuffer().append(cpcl, charset);
+                appendHex(getByteBuffer(), getBytes()).append(new byte[] {13, 10});
                 break;
             case EVOLIS:
-                try {
-                    ArrayList<float[]> cymkData = convertToCYMK();
-                    int precision = opt.optInt("precision", 128);
-
-                    // Y,M,C,K,O ribbon
-                    generateRibbonData('y', precision, cymkData.get(1));
-                    generateRibbonData('m', precision, cymkData.get(2));
-                    generateRibbonData('c', precision, cymkData.get(0));
-
-                    //K(black) and O(overlay) are always precision 2
-                    generateRibbonData('k', 2, cymkData.get(3));
-
-                    if (opt.has("overlay")) {
-                        try { generateRibbonData('o', 2, parseOverlay(opt.get("overlay"))); }
-                        catch(Exception e) {
-                            log.error("Failed to parse overlay data: {}", e.getMessage());
-                        }
+                byte[] overlay = null;
+                if (opt.has("overlay")) {
+                    try { overlay = parseOverlay(opt.get("overlay")); }
+                    catch(Exception e) {
+                        log.error("Failed to parse overlay data: {}", e.getMessage());
                     }
                 }
-                catch(IOException ioe) {
-                    throw new InvalidRawImageException(ioe.getMessage(), ioe);
-                }
 
+                // Y,M,C,K,O ribbon
+                appendEvolisRibbons(getByteBuffer(), opt.optInt("precision", 128), overlay);
                 break;
             case SBPL:
-                String sbplHexAsString = ByteUtilities.getHexString(getImageAsIntArray());
                 StringBuilder sbpl = new StringBuilder("GH")
                         .append(String.format("%03d", getWidth() / 8))
-                        .append(String.format("%03d", getHeight() / 8))
-                        .append(sbplHexAsString);
+                        .append(String.format("%03d", getHeight() / 8));
 
                 getByteBuffer().append(new byte[] {27}).append(sbpl, charset);
+                appendHex(getByteBuffer(), getBytes());
                 break;
             case PGL:
                 if(logoId.isEmpty()) {
@@ -419,6 +664,15 @@ public class ImageWrapper {
                         .append(getImageAsPGLDots())
                         .append("END").append("\n");
 
+                if (graphicCache != null) {
+                    String hash = GraphicCache.hash(languageType, getWidth(), getHeight(), pgl.toString().getBytes(charset));
+                    if (logoId.equals(graphicCache.find(hash))) {
+                        log.debug("Logo {} is already stored on the printer", logoId);
+                        break;
+                    }
+                    graphicCache.add(hash, logoId);
+                }
+
                 getByteBuffer().append(pgl, charset);
                 break;
             default:
@@ -428,6 +682,24 @@ public class ImageWrapper {
         return getByteBuffer().getByteArray();
     }
 
+    /**
+     * Appends {@code bytes} as uppercase hexadecimal text, written directly as ASCII unless the charset encodes it differently
+     */
+    private ByteArrayBuilder appendHex(ByteArrayBuilder builder, byte[] bytes) throws UnsupportedEncodingException {
+        return appendAscii(builder, ZplCompression.NONE.encode(bytes, 0));
+    }
+
+    /**
+     * Appends ASCII {@code text} as-is, unless the charset encodes it differently
+     */
+    private ByteArrayBuilder appendAscii(ByteArrayBuilder builder, byte[] text) throws UnsupportedEncodingException {
+        if (!Arrays.equals(ASCII_SAMPLE, ASCII_SAMPLE_TEXT.getBytes(charset))) {
+            return builder.append(new String(text, StandardCharsets.US_ASCII), charset);
+        }
+
+        return builder.append(text);
+    }
+
     /**
      * @return the width of the image
      */
@@ -443,10 +715,13 @@ public class ImageWrapper {
     }
 
     /**
-     * @return the image as an array of booleans
+     * @return the image as an array of bytes, with each bit representing a dot
      */
-    private boolean[] getImageAsBooleanArray() {
-        return imageAsBooleanArray;
+    private byte[] getImageAsPackedBits() {
+        if (imageAsPackedBits == null) {
+            init();
+        }
+        return imageAsPackedBits;
     }
 
     /**
@@ -458,6 +733,7 @@ public class ImageWrapper {
      */
     private String getImageAsPGLDots() {
         StringBuilder pglDots = new StringBuilder();
+        byte[] packed = getImageAsPackedBits();
         int pixelIndex = 0;
         for(int h = 1; h <= getHeight(); h++) {
             StringBuilder line = new StringBuilder();
@@ -466,7 +742,7 @@ public class ImageWrapper {
             int end = -1;
 
             for(int w = 1; w <= getWidth(); w++) {
-                if(imageAsBooleanArray[pixelIndex]) {
+                if(isDot(packed, pixelIndex)) {
                     System.out.print(".");
                     if(start == -1) {
                         start = w;
@@ -515,37 +791,23 @@ public class ImageWrapper {
     }
 
     /**
-     * @param imageAsBooleanArray the imageAsBooleanArray to set
+     * @param imageAsPackedBits the imageAsPackedBits to set
      */
-    private void setImageAsBooleanArray(boolean[] imageAsBooleanArray) {
-        this.imageAsBooleanArray = imageAsBooleanArray;
-    }
-
-    /**
-     * @return the imageAsIntArray
-     */
-    private int[] getImageAsIntArray() {
-        return imageAsIntArray;
-    }
-
-    /**
-     * @param imageAsIntArray the imageAsIntArray to set
-     */
-    private void setImageAsIntArray(int[] imageAsIntArray) {
-        this.imageAsIntArray = imageAsIntArray;
+    private void setImageAsPackedBits(byte[] imageAsPackedBits) {
+        this.imageAsPackedBits = imageAsPackedBits;
     }
 
     /**
      * Initializes the ImageWrapper. This populates the internal structures with
-     * the data created from the original image. It is normally called by the
-     * constructor, but if for any reason you change the image contents (for
-     * example, if you resize the image), it must be initialized again prior to
-     * calling getImageCommand()
+     * the data created from the original image. It is called the first time
+     * the image data is needed, and again after any of the conversion settings
+     * change.  If for any reason you change the image contents (for example,
+     * if you resize the image), it must be initialized again prior to calling
+     * getImageCommand()
      */
     private void init() {
-        log.info("Initializing Image Fields");
-        setImageAsBooleanArray(generateBlackPixels(bufferedImage));
-        generateIntArray();
+        log.debug("Initializing Image Fields");
+        setImageAsPackedBits(generateBlackPixels(bufferedImage, dithering));
     }
 
     public Charset getCharset() {
@@ -577,6 +839,115 @@ public class ImageWrapper {
         bufferedImage = buffer;
     }
 
+    /**
+     * Appends the image as ESC/POS raster bands ({@code GS v 0} or {@code GS ( L} graphics) of up to
+     * {@value #RASTER_BAND_ROWS} rows each, which print far faster than column slices on tall images.
+     *
+     * @param compress Feed past blank rows instead of sending them, and leave off blank bytes at the end of each band's rows
+     */
+    private void appendEpsonRaster(ByteArrayBuilder builder, EscPosImageMode mode, boolean compress) {
+        byte[] packed = getImageAsPackedBits();
+        int perRow = (getWidth() + 7) / 8;
+        byte[] row = new byte[perRow];
+        byte[] band = new byte[perRow * RASTER_BAND_ROWS];
+
+        int y = 0;
+        while(y < getHeight()) {
+            if (compress) {
+                int blank = 0;
+                while(y + blank < getHeight() && usedBytes(copyRow(packed, y + blank, row)) == 0) {
+                    blank++;
+                }
+                if (blank > 0) {
+                    for(int feed = blank; feed > 0; feed -= 255) {
+                        builder.append(new byte[] {0x1B, 0x4A, (byte)Math.min(feed, 255)});
+                    }
+                    y += blank;
+                    continue;
+                }
+            }
+
+            // collect rows up to the next blank row, which will be fed past instead when compressing
+            int rows = 0;
+            int used = compress? 0:perRow;
+            while(rows < RASTER_BAND_ROWS && y + rows < getHeight()) {
+                copyRow(packed, y + rows, row);
+                if (compress) {
+                    int rowUsed = usedBytes(row);
+                    if (rowUsed == 0) { break; }
+                    used = Math.max(used, rowUsed);
+                }
+                System.arraycopy(row, 0, band, rows * perRow, perRow);
+                rows++;
+            }
+
+            long length = (long)used * rows;
+            if (mode == EscPosImageMode.GRAPHICS) {
+                // store function 112: monochrome, normal scale, first color, width and height in dots
+                long size = length + 10;
+                byte[] header = {48, 112, 48, 1, 1, 49, (byte)(used * 8 % 256), (byte)(used * 8 / 256), (byte)(rows % 256), (byte)(rows / 256)};
+                if (size <= 0xFFFF) {
+                    builder.append(new byte[] {0x1D, 0x28, 0x4C, (byte)(size & 0xFF), (byte)(size >> 8 & 0xFF)});
+                } else {
+                    builder.append(new byte[] {0x1D, 0x38, 0x4C, (byte)(size & 0xFF), (byte)(size >> 8 & 0xFF), (byte)(size >> 16 & 0xFF), (byte)(size >> 24 & 0xFF)});
+                }
+                builder.append(header);
+            } else {
+                builder.append(new byte[] {0x1D, 0x76, 0x30, 0x00, (byte)(used % 256), (byte)(used / 256), (byte)(rows % 256), (byte)(rows / 256)});
+            }
+
+            for(int r = 0; r < rows; r++) {
+                builder.append(band, r * perRow, used);
+            }
+
+            if (mode == EscPosImageMode.GRAPHICS) {
+                // print function 50: print the stored graphics
+                builder.append(new byte[] {0x1D, 0x28, 0x4C, 0x02, 0x00, 48, 50});
+            }
+
+            y += rows;
+        }
+    }
+
+    /**
+     * Copies row {@code y} of the packed image into {@code row}, padding the end of the row with white
+     */
+    private byte[] copyRow(byte[] packed, int y, byte[] row) {
+        long start = (long)y * getWidth();
+        int from = (int)(start >>> 3);
+        int shift = (int)(start & 7);
+
+        if (shift == 0) {
+            System.arraycopy(packed, from, row, 0, Math.min(row.length, packed.length - from));
+        } else {
+            for(int i = 0; i < row.length; i++) {
+                int high = packed[from + i] & 0xFF;
+                int low = from + i + 1 < packed.length? packed[from + i + 1] & 0xFF:0;
+                row[i] = (byte)(high << shift | low >>> (8 - shift));
+            }
+        }
+
+        // clear the bits past the end of the row, which belong to the next one
+        int extra = row.length * 8 - getWidth();
+        if (extra > 0) {
+            row[row.length - 1] &= (byte)(0xFF << extra);
+        }
+
+        return row;
+    }
+
+    /**
+     * @return The length of {@code row} without its trailing blank bytes
+     */
+    private static int usedBytes(byte[] row) {
+        int used = row.length;
+        while(used > 0 && row[used - 1] == 0) {
+            used--;
+        }
+
+        return used;
+    }
+
     /**
      * http://android-essential-devtopics.blogspot.com/2013/02/sending-bit-image-to-epson-printer.html
      * <p>
@@ -598,6 +969,8 @@ public class ImageWrapper {
             builder.append(new byte[] { 0x1B, 0x33, 24});
         }
 
+        byte[] packed = getImageAsPackedBits();
+        int dots = getWidth() * getHeight();
         int offset = 0; // keep track of chunk offset currently being written
         boolean zeroPass = true; // track if this segment get rewritten with 1 pixel offset, always true if not striping
 
@@ -618,7 +991,7 @@ public class ImageWrapper {
 
                         // calculate the location of the pixel we want in the bit array and update the slice if it is supposed to be black
                         int i = (y * getWidth()) + x;
-                        if (i < imageAsBooleanArray.length && imageAsBooleanArray[i]) {
+                        if (i < dots && isDot(packed, i)) {
                             // append desired bit to current byte being built, remembering that bits go right to left
                             slice |= (byte)(1 << (7 - (bit - (zeroPass? 0:1)) / (stripe? 2:1)));
                         }
@@ -656,36 +1029,158 @@ public class ImageWrapper {
         }
     }
 
-    private ArrayList<float[]> convertToCYMK() throws IOException {
-        int[] pixels = bufferedImage.getRGB(0, 0, getWidth(), getHeight(), null, 0, getWidth());
+    /**
+     * Appends the Y, M, C, K and optional O ribbon panels, converting every pixel to all four colors in a single pass.
+     * Panels are packed straight into one output array.  Common image types are read straight from their raster, in
+     * parallel bands of rows, anything else is converted a row at a time on the calling thread.
+     *
+     * @param precision Levels per color for the Y, M and C panels, K and O always use 2
+     * @param overlay   Packed dots of the overlay panel, or {@code null} for none
+     */
+    private void appendEvolisRibbons(ByteArrayBuilder builder, int precision, byte[] overlay) {
+        int width = getWidth();
+        int height = getHeight();
+        int dots = width * height;
+        int bits = precisionBits(precision);
+
+        // K(black) and O(overlay) are always precision 2
+        char[] ribbons = {'y', 'm', 'c', 'k', 'o'};
+        byte[][] headers = new byte[ribbons.length][];
+        for(int p = 0; p < ribbons.length; p++) {
+            headers[p] = ("\u001BDb;" + ribbons[p] + ";" + (p < 3? precision:2) + ";").getBytes(charset);
+        }
 
-        float[] cyan = new float[pixels.length];
-        float[] yellow = new float[pixels.length];
-        float[] magenta = new float[pixels.length];
-        float[] black = new float[pixels.length];
+        int colorLength = panelLength(dots, bits);
+        int blackLength = panelLength(dots, 1);
 
-        for(int i = 0; i < pixels.length; i++) {
-            float rgb[] = new Color(pixels[i]).getRGBColorComponents(null);
-            if (rgb[0] == 0.0f && rgb[1] == 0.0f && rgb[2] == 0.0f) {
-                black[i] = 1.0f;
-            } else {
-                cyan[i] = 1.0f - rgb[0];
-                magenta[i] = 1.0f - rgb[1];
-                yellow[i] = 1.0f - rgb[2];
+        // y, m, c and k panels one after another, each followed by a carriage return
+        int[] starts = new int[5];
+        int length = 0;
+        for(int p = 0; p < 4; p++) {
+            starts[p] = length + headers[p].length;
+            length = starts[p] + (p < 3? colorLength:blackLength) + 1;
+        }
+        if (overlay != null) {
+            starts[4] = length + headers[4].length;
+            length = starts[4] + blackLength + 1;
+        }
+
+        byte[] out = new byte[length];
+        for(int p = 0; p < (overlay == null? 4:5); p++) {
+            log.debug("Building ribbon 'Db;{};{};..'", ribbons[p], p < 3? precision:2);
+            System.arraycopy(headers[p], 0, out, starts[p] - headers[p].length, headers[p].length);
+            out[starts[p] + (p < 3? colorLength:blackLength)] = 0x0D;
+        }
+        if (overlay != null) {
+            System.arraycopy(overlay, 0, out, starts[4], (dots + 7) / 8);
+        }
+
+        // each color level is 1 minus its RGB component, scaled to the precision
+        int[] levels = new int[256];
+        int mask = (1 << bits) - 1;
+        for(int i = 0; i < levels.length; i++) {
+            levels[i] = (byte)((1.0f - i / 255f) * (precision - 1)) & mask;
+        }
+
+        // other image types convert through their color model, which isn't guaranteed to be thread safe
+        RowReader direct = getRowReader(bufferedImage);
+        RowReader reader = direct != null? direct:(y, row) -> bufferedImage.getRGB(0, y, width, 1, row, 0, width);
+
+        RowBands.Band band = (fromY, toY) -> {
+            int first = fromY * width;
+            PanelWriter yellow = new PanelWriter(out, starts[0] + (int)((long)first * bits / 8), bits);
+            PanelWriter magenta = new PanelWriter(out, starts[1] + (int)((long)first * bits / 8), bits);
+            PanelWriter cyan = new PanelWriter(out, starts[2] + (int)((long)first * bits / 8), bits);
+            PanelWriter black = new PanelWriter(out, starts[3] + first / 8, 1);
+
+            int[] row = new int[width];
+            for(int y = fromY; y < toY; y++) {
+                reader.read(y, row);
+                for(int x = 0; x < width; x++) {
+                    int rgb = row[x] & 0xFFFFFF;
+                    if (rgb == 0) {
+                        yellow.write(0);
+                        magenta.write(0);
+                        cyan.write(0);
+                        black.write(1);
+                    } else {
+                        yellow.write(levels[rgb & 0xFF]);
+                        magenta.write(levels[rgb >> 8 & 0xFF]);
+                        cyan.write(levels[rgb >> 16]);
+                        black.write(0);
+                    }
+                }
             }
+
+            yellow.flush();
+            magenta.flush();
+            cyan.flush();
+            black.flush();
+        };
+
+        if (direct != null) {
+            // bands must start on a whole byte of every panel, so their first dot must be a multiple of 8
+            RowBands.process(width, height, 8 / gcd(width, 8), band);
+        } else {
+            band.process(0, height);
         }
 
-        ArrayList<float[]> colorData = new ArrayList<>();
-        colorData.add(cyan);
-        colorData.add(yellow);
-        colorData.add(magenta);
-        colorData.add(black);
+        builder.append(out);
+    }
+
+    /**
+     * Bytes needed for {@code dots} values of {@code bits} each.  A panel filling its last byte exactly is followed by
+     * an extra empty byte, as the printers have always been sent.
+     */
+    private static int panelLength(int dots, int bits) {
+        long total = (long)dots * bits;
+        return (int)((total + 7) / 8) + (bits < 8 && dots > 1 && total % 8 == 0? 1:0);
+    }
 
-        return colorData;
+    private static int gcd(int a, int b) {
+        return b == 0? a:gcd(b, a % b);
     }
 
-    private float[] parseOverlay(Object overlay) throws IOException, JSONException {
-        float[] overlayData = new float[getWidth() * getHeight()];
+    /**
+     * Packs values of a fixed number of bits into an array, most significant bit first
+     */
+    private static class PanelWriter {
+        private final byte[] out;
+        private final int bits;
+        private int position;
+        private int pending;
+        private int pendingBits;
+
+        PanelWriter(byte[] out, int position, int bits) {
+            this.out = out;
+            this.position = position;
+            this.bits = bits;
+        }
+
+        void write(int value) {
+            pending = pending << bits | value;
+            pendingBits += bits;
+            if (pendingBits >= 8) {
+                pendingBits -= 8;
+                out[position++] = (byte)(pending >> pendingBits);
+            }
+        }
+
+        /** Writes out a partial last byte, padded with zeros */
+        void flush() {
+            if (pendingBits > 0) {
+                out[position++] = (byte)(pending << (8 - pendingBits));
+                pendingBits = 0;
+            }
+        }
+    }
+
+    /**
+     * @return The overlay panel as packed dots, one per pixel of the image
+     */
+    private byte[] parseOverlay(Object overlay) throws IOException, JSONException {
+        int dots = getWidth() * getHeight();
+        byte[] overlayData = new byte[(dots + 7) / 8];
 
         if (overlay instanceof JSONArray) {
             //array of rectangles
@@ -696,8 +1191,8 @@ public class ImageWrapper {
                     for(int y = block.getInt(1) - 1; y < block.getInt(3); y++) {
                         int off = (y * getWidth());
                         for(int x = block.getInt(0) - 1; x < block.getInt(2); x++) {
-                            if ((off + x) >= 0 && (off + x) < overlayData.length) {
-                                overlayData[off + x] = 1.0f;
+                            if ((off + x) >= 0 && (off + x) < dots) {
+                                overlayData[(off + x) >> 3] |= (byte)(0x80 >>> ((off + x) & 7));
                             }
                         }
                     }
@@ -705,62 +1200,25 @@ public class ImageWrapper {
             }
         } else if (overlay instanceof String) {
             //image mask
-            boolean[] mask = generateBlackPixels(ImageIO.read(new URL((String)overlay)));
-            for(int i = 0; i < overlayData.length; i++) {
-                overlayData[i] = (mask[i]? 1.0f:0.0f);
+            byte[] mask = generateBlackPixels(ImageIO.read(new URL((String)overlay)), Dithering.NONE);
+            if ((long)mask.length * 8 < dots) {
+                throw new IOException("Overlay image is smaller than the image");
+            }
+            System.arraycopy(mask, 0, overlayData, 0, overlayData.length);
+            if (dots % 8 != 0) {
+                overlayData[overlayData.length - 1] &= (byte)(0xFF << (8 - dots % 8));
             }
         } else if (overlay instanceof Boolean && (boolean)overlay) {
             //boolean coat
-            for(int i = 0; i < overlayData.length; i++) {
-                overlayData[i] = 1.0f;
+            Arrays.fill(overlayData, (byte)0xFF);
+            if (dots % 8 != 0) {
+                overlayData[overlayData.length - 1] = (byte)(0xFF << (8 - dots % 8));
             }
         }
 
         return overlayData;
     }
 
-    private void generateRibbonData(char ribbon, int precision, float[] colorData) throws UnsupportedEncodingException {
-        log.debug("Building ribbon 'Db;{};{};..'", ribbon, precision);
-
-        getByteBuffer().append("\u001BDb;" + ribbon + ";" + precision + ";", charset);
-        getByteBuffer().append(compactBits(precision, colorData));
-        getByteBuffer().append(new byte[] {0x0D});
-    }
-
-    private ArrayList<Byte> compactBits(int precision, float[] colorData) {
-        ArrayList<Byte> bytes = new ArrayList<>();
-
-        int bits = precisionBits(precision);
-        int empty = 8 - bits;
-
-        for(int i = 0; i < colorData.length; i++) {
-            byte b = 0;
-            int captured = 0;
-
-            b |= byteValue(colorData[i], precision) << empty;
-            captured += 8 - empty;
-
-            while(captured < 8 && (i + 1) < colorData.length) {
-                int excess = bits - empty;
-
-                if (excess > 0) { //because negative shifts don't go backwards
-                    b |= byteValue(colorData[i + 1], precision) >> excess;
-                } else {
-                    b |= byteValue(colorData[i + 1], precision) << Math.abs(excess);
-                }
-                captured += bits - Math.max(0, excess);
-                if (captured < 8 && excess <= 0) { i++; } //if we've eaten an entire color point but haven't filled the byte, increase index looking at
-
-                empty = 8 - excess;
-                if (empty > 8) { empty -= 8; } //wrap around so we never shift over a byte length
-            }
-
-            bytes.add(b);
-        }
-
-        return bytes;
-    }
-
     private int precisionBits(int precision) {
         precision--;  // "128" is actually 0-127, subtract one
         int ones = 0;
@@ -772,10 +1230,6 @@ public class ImageWrapper {
         return ones;
     }
 
-    private byte byteValue(float value, int precision) {
-        return (byte)(value * (precision - 1));
-    }
-
     /**
      * Checks if the image width is a multiple of 8, and if it's not,
      * pads the image on the right side with blank pixels. <br />
@@ -795,7 +1249,6 @@ public class ImageWrapper {
             g.drawImage(oldBufferedImage, 0, 0, null);
             g.dispose();
             setBufferedImage(newBufferedImage);
-            init();
         }
     }
 }
@@ -0,0 +1,114 @@
+package qz.printer.action.raw;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits the rows of an image into horizontal bands and processes them in parallel on a shared fork/join pool.
+ * <p>
+ * Bands never share a row, and their first row is always a multiple of the requested alignment, so that work
+ * writing packed output (e.g. eight dots per byte) never touches the same output element from two threads.
+ * Small images are processed on the calling thread.
+ */
+public class RowBands {
+
+    private static final Logger log = LogManager.getLogger(RowBands.class);
+
+    // below this many pixels the cost of forking outweighs the gain
+    private static final long MIN_PARALLEL_PIXELS = 512 * 512;
+    // bands per thread, so that uneven bands still balance out
+    private static final int BANDS_PER_THREAD = 4;
+
+    private static int parallelism = Runtime.getRuntime().availableProcessors();
+    private static ForkJoinPool pool;
+
+    public interface Band {
+        /**
+         * Processes rows {@code fromY} (inclusive) through {@code toY} (exclusive)
+         */
+        void process(int fromY, int toY);
+    }
+
+    /**
+     * Caps the number of threads used to process a single image
+     *
+     * @param threads Maximum threads, {@code 0} or less to use one per available processor
+     */
+    public static synchronized void setParallelism(int threads) {
+        int capped = threads > 0? threads:Runtime.getRuntime().availableProcessors();
+        if (capped != parallelism && pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+        parallelism = capped;
+        log.debug("Image conversion will use up to {} thread(s)", parallelism);
+    }
+
+    /**
+     * Processes all {@code height} rows of a {@code width} wide image, in parallel when the image is large enough.
+     * The result must not depend on the order that bands are processed in.
+     *
+     * @param alignment Every band will start on a row which is a multiple of this
+     */
+    public static void process(int width, int height, int alignment, Band band) {
+        ForkJoinPool forkJoinPool = getPool();
+        if (forkJoinPool == null || (long)width * height < MIN_PARALLEL_PIXELS) {
+            band.process(0, height);
+            return;
+        }
+
+        int rows = Math.max(1, height / (forkJoinPool.getParallelism() * BANDS_PER_THREAD));
+        rows = ((rows + alignment - 1) / alignment) * alignment;
+
+        forkJoinPool.invoke(new BandAction(band, 0, height, rows));
+    }
+
+    private static synchronized ForkJoinPool getPool() {
+        if (parallelism <= 1) {
+            return null;
+        }
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism, p -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+                thread.setName("qz-raster-" + thread.getPoolIndex());
+                return thread;
+            }, null, false);
+        }
+
+        return pool;
+    }
+
+    private static class BandAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Band band;
+        private final int fromY;
+        private final int toY;
+        private final int rows;
+
+        BandAction(Band band, int fromY, int toY, int rows) {
+            this.band = band;
+            this.fromY = fromY;
+            this.toY = toY;
+            this.rows = rows;
+        }
+
+        @Override
+        protected void compute() {
+            if (toY - fromY <= rows) {
+                band.process(fromY, toY);
+                return;
+            }
+
+            // split on a band boundary so every band stays aligned
+            int bands = (toY - fromY + rows - 1) / rows;
+            int middle = fromY + (bands / 2) * rows;
+            invokeAll(new BandAction(band, fromY, middle, rows), new BandAction(band, middle, toY, rows));
+        }
+    }
+
+}
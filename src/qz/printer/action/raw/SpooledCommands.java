@@ -0,0 +1,379 @@
+package qz.printer.action.raw;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import qz.common.ByteArrayBuilder;
+import qz.common.Constants;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Accumulates the raw commands of a print job, holding them in memory until they grow past a limit
+ * and buffering them to a temporary file from then on.
+ * <p>
+ * Commands are written to the printer, host or file by streaming them with {@link #openStream()} or
+ * {@link #writeTo(OutputStream)}, so peak memory use stays bounded no matter how large the job or how many copies are printed.
+ * Jobs are split into pages with {@link #split(byte[], int)} as ranges over the same commands, without copying them.
+ * Local files are appended and sent with {@code FileChannel} transfers, so once buffered to a file, commands are copied
+ * between files and sockets without passing through the Java heap.
+ */
+public class SpooledCommands implements Closeable {
+
+    private static final Logger log = LogManager.getLogger(SpooledCommands.class);
+
+    private final long memoryLimit;
+
+    private ByteArrayBuilder memory = new ByteArrayBuilder();
+    private File file;
+    private FileOutputStream fileStream;
+    private OutputStream fileOut;
+    private long length;
+
+    // set when this is a page of another job's commands
+    private final SpooledCommands source;
+    private final long offset;
+
+    private byte[] array;
+
+    /**
+     * @param memoryLimit Number of bytes to hold in memory before buffering to a file, negative to never use a file
+     */
+    public SpooledCommands(long memoryLimit) {
+        this.memoryLimit = memoryLimit;
+        this.source = null;
+        this.offset = 0;
+    }
+
+    /**
+     * Wraps commands already held in memory
+     */
+    public SpooledCommands(ByteArrayBuilder commands) {
+        this(-1);
+        memory = commands;
+        length = commands.getLength();
+    }
+
+    /**
+     * A read-only range of {@code source}, sharing its commands
+     */
+    private SpooledCommands(SpooledCommands source, long offset, long length) {
+        this.memoryLimit = -1;
+        this.source = source;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public SpooledCommands append(byte[] bytes) throws IOException {
+        return append(bytes, 0, bytes.length);
+    }
+
+    public SpooledCommands append(byte[] bytes, int offset, int len) throws IOException {
+        if (source != null) { throw new UnsupportedOperationException("Cannot append to a page of another job"); }
+
+        array = null;
+        if (fileOut == null && memoryLimit >= 0 && length + len > memoryLimit) {
+            spill();
+        }
+
+        if (fileOut != null) {
+            fileOut.write(bytes, offset, len);
+        } else {
+            memory.append(bytes, offset, len);
+        }
+        length += len;
+
+        return this;
+    }
+
+    /**
+     * Appends the contents of a local file, transferring them straight into the buffer file if the job is (or now will be)
+     * buffered, otherwise reading them straight into memory
+     */
+    public SpooledCommands append(Path path) throws IOException {
+        if (source != null) { throw new UnsupportedOperationException("Cannot append to a page of another job"); }
+
+        try(FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = in.size();
+            if (fileOut == null && memoryLimit >= 0 && length + size > memoryLimit) {
+                spill();
+            }
+
+            array = null;
+            if (fileOut != null) {
+                fileOut.flush();
+                FileChannel out = fileStream.getChannel();
+                for(long position = 0; position < size; ) {
+                    long copied = in.transferTo(position, size - position, out);
+                    if (copied == 0 && position >= in.size()) { throw new EOFException(path + " was truncated while reading"); }
+                    position += copied;
+                }
+            } else {
+                if (length + size > Integer.MAX_VALUE - 8) {
+                    throw new IOException("File " + path + " is too large to be held in memory");
+                }
+                // not mapped, since a mapped file stays locked on Windows until it is garbage collected
+                memory.append(in, (int)size);
+            }
+            length += size;
+        }
+
+        return this;
+    }
+
+    /**
+     * Appends everything remaining in {@code in}, without reading it all into memory first
+     */
+    public SpooledCommands append(InputStream in) throws IOException {
+        byte[] buffer = new byte[Constants.BYTE_BUFFER_SIZE];
+        int len;
+        while((len = in.read(buffer)) > -1) {
+            append(buffer, 0, len);
+        }
+
+        return this;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return Whether the commands have been buffered to a file rather than held in memory
+     */
+    public boolean isBuffered() {
+        return source != null? source.isBuffered():file != null;
+    }
+
+    /**
+     * Opens a new stream over all of the commands appended so far
+     */
+    public InputStream openStream() throws IOException {
+        if (isBuffered()) {
+            File file = getRoot().file;
+            getRoot().flush();
+
+            InputStream in = new FileInputStream(file);
+            IOUtils.skipFully(in, offset);
+            return new BufferedInputStream(BoundedInputStream.builder().setInputStream(in).setMaxCount(length).get(), Constants.BYTE_BUFFER_SIZE);
+        }
+
+        return new ByteArrayInputStream(getByteArray());
+    }
+
+    /**
+     * @return A read-only view of the commands without copying them, or {@code null} if they have been buffered to a file
+     */
+    public ByteBuffer asByteBuffer() {
+        if (isBuffered()) {
+            return null;
+        }
+
+        ByteBuffer buffer = getRoot().memory.asByteBuffer();
+        buffer.position((int)offset).limit((int)(offset + length));
+        return buffer.slice();
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        if (isBuffered()) {
+            try(InputStream in = openStream()) {
+                IOUtils.copyLarge(in, out, new byte[Constants.BYTE_BUFFER_SIZE]);
+            }
+        } else if (source == null) {
+            memory.writeTo(out);
+        } else {
+            source.memory.writeTo(out, (int)offset, (int)length);
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the commands to a blocking channel, transferring them straight from the buffer file if they were buffered
+     */
+    public void writeTo(WritableByteChannel out) throws IOException {
+        if (!transferFile((file, position, count) -> {
+            while(count > 0) {
+                long sent = file.transferTo(position, count, out);
+                if (sent == 0 && position >= file.size()) { throw new EOFException("Buffered commands were truncated"); }
+                position += sent;
+                count -= sent;
+            }
+        })) {
+            ByteBuffer buffer = asByteBuffer();
+            while(buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Hands the range of the buffer file holding these commands to {@code transfer}, so they can be sent from it directly
+     *
+     * @return {@code false} if the commands are held in memory, and nothing was transferred
+     */
+    public boolean transferFile(FileTransfer transfer) throws IOException {
+        if (!isBuffered()) {
+            return false;
+        }
+
+        getRoot().flush();
+        try(FileChannel file = FileChannel.open(getRoot().file.toPath(), StandardOpenOption.READ)) {
+            transfer.transfer(file, offset, length);
+        }
+
+        return true;
+    }
+
+    /**
+     * Splits the commands after every {@code count}-th instance of {@code pattern}, as pages sharing these commands.
+     * Any commands after the last instance are not part of a page.
+     * <p>
+     * The commands are scanned once as a stream, so they are not read into memory if they were buffered to a file.
+     */
+    public List<SpooledCommands> split(byte[] pattern, int count) throws IOException {
+        if (count < 1) { throw new IllegalArgumentException("Count cannot be less than 1"); }
+
+        // Knuth-Morris-Pratt, so matches spanning reads are still found without looking back
+        int[] fallback = new int[pattern.length];
+        for(int i = 1, k = 0; i < pattern.length; i++) {
+            while(k > 0 && pattern[i] != pattern[k]) { k = fallback[k - 1]; }
+            if (pattern[i] == pattern[k]) { k++; }
+            fallback[i] = k;
+        }
+
+        List<SpooledCommands> pages = new ArrayList<>();
+        long start = 0, position = 0, lastMatch = 0;
+        int matched = 0, counted = 0;
+
+        try(InputStream in = isBuffered()? openStream():null) {
+            ByteBuffer buffer = isBuffered()? null:asByteBuffer();
+            byte[] chunk = new byte[Constants.BYTE_BUFFER_SIZE];
+            int len;
+            while((len = read(in, buffer, chunk)) > -1) {
+                for(int i = 0; i < len; i++, position++) {
+                    while(matched > 0 && chunk[i] != pattern[matched]) { matched = fallback[matched - 1]; }
+                    if (chunk[i] == pattern[matched] && ++matched == pattern.length) {
+                        matched = 0;
+                        lastMatch = position + 1;
+                        if (++counted == count) {
+                            pages.add(page(start, position + 1));
+                            start = position + 1;
+                            counted = 0;
+                        }
+                    }
+                }
+            }
+        }
+
+        // include any page with fewer than 'count' matches, up to the last one
+        if (counted > 0) {
+            pages.add(page(start, lastMatch));
+        }
+
+        return pages;
+    }
+
+    private SpooledCommands page(long from, long to) {
+        return new SpooledCommands(getRoot(), offset + from, to - from);
+    }
+
+    private static int read(InputStream in, ByteBuffer buffer, byte[] chunk) throws IOException {
+        if (in != null) {
+            return in.read(chunk);
+        }
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+
+        int len = Math.min(chunk.length, buffer.remaining());
+        buffer.get(chunk, 0, len);
+        return len;
+    }
+
+    private SpooledCommands getRoot() {
+        return source != null? source:this;
+    }
+
+    /**
+     * Reads all of the commands into a single array.  Only use when the whole job must be searched at once.
+     */
+    public byte[] getByteArray() throws IOException {
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IOException("Raw job of " + length + " bytes is too large to be held in memory");
+        }
+
+        // kept, so sending several copies only reads the commands once
+        if (array == null) {
+            if (!isBuffered()) {
+                array = new byte[(int)length];
+                asByteBuffer().get(array);
+            } else {
+                ByteArrayOutputStream out = new ByteArrayOutputStream((int)length);
+                writeTo(out);
+                array = out.toByteArray();
+            }
+        }
+
+        return array;
+    }
+
+    /**
+     * Discards all commands, deleting any temporary file
+     */
+    public void clear() {
+        close();
+        memory = new ByteArrayBuilder();
+        length = 0;
+        array = null;
+    }
+
+    /**
+     * Deletes any temporary file.  Pages of these commands can no longer be used once closed.
+     */
+    @Override
+    public void close() {
+        if (fileOut != null) {
+            try { fileOut.close(); } catch(IOException ignore) {}
+            fileOut = null;
+            fileStream = null;
+        }
+        if (file != null) {
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+            file = null;
+        }
+    }
+
+    private void spill() throws IOException {
+        file = File.createTempFile("qz_raw_", null);
+        log.debug("Raw job exceeds {} bytes, buffering to {}", memoryLimit, file);
+
+        fileStream = new FileOutputStream(file);
+        fileOut = new BufferedOutputStream(fileStream, Constants.BYTE_BUFFER_SIZE);
+        memory.writeTo(fileOut);
+        memory = new ByteArrayBuilder();
+    }
+
+    private void flush() throws IOException {
+        if (fileOut != null) {
+            fileOut.flush();
+        }
+    }
+
+    /**
+     * Sends {@code count} bytes of {@code file} from {@code position}, e.g. with {@link FileChannel#transferTo}
+     */
+    public interface FileTransfer {
+        void transfer(FileChannel file, long position, long count) throws IOException;
+    }
+
+}
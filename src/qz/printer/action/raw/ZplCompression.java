@@ -0,0 +1,189 @@
+package qz.printer.action.raw;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+/**
+ * Enum for the encodings of the data field of a ZPL {@code ^GFA} graphic.
+ * <ul>
+ * <li><code>NONE</code>: Uncompressed ASCII hex, two characters per byte</li>
+ * <li><code>ACS</code>: Zebra's alternative compression scheme, ASCII hex with run-length counts and whole-row shortcuts</li>
+ * <li><code>Z64</code>: Deflated, base64 encoded and followed by a CRC of the encoded text</li>
+ * <li><code>AUTO</code>: Whichever of the above is smallest for the image</li>
+ * </ul>
+ */
+public enum ZplCompression {
+
+    NONE, ACS, Z64, AUTO;
+
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+
+    public static ZplCompression getType(String type) {
+        if (type != null) {
+            for(ZplCompression compression : ZplCompression.values()) {
+                if (compression.name().equals(type.toUpperCase(Locale.ENGLISH))) {
+                    return compression;
+                }
+            }
+        }
+
+        return NONE;
+    }
+
+    /**
+     * Encodes packed image {@code data} as the ASCII data field of a {@code ^GFA} command
+     *
+     * @param perRow Bytes per row of the image
+     */
+    public byte[] encode(byte[] data, int perRow) {
+        switch(this) {
+            case ACS:
+                return encodeAcs(data, perRow);
+            case Z64:
+                return encodeZ64(data);
+            case AUTO:
+                byte[] acs = encodeAcs(data, perRow);
+                byte[] z64 = encodeZ64(data);
+                byte[] smallest = acs.length <= z64.length? acs:z64;
+                return smallest.length < data.length * 2? smallest:encodeHex(data);
+            case NONE:
+            default:
+                return encodeHex(data);
+        }
+    }
+
+    private static byte[] encodeHex(byte[] data) {
+        byte[] hex = new byte[data.length * 2];
+        for(int i = 0; i < data.length; i++) {
+            hex[i * 2] = HEX[(data[i] & 0xF0) >>> 4];
+            hex[i * 2 + 1] = HEX[data[i] & 0x0F];
+        }
+
+        return hex;
+    }
+
+    /**
+     * Runs of a repeated hex digit are prefixed with a count, G-Y for 1-19 and g-z for 20-400 in steps of 20.
+     * A row ending in zeros ends with ',', a row ending in ones ends with '!', and a row identical to the one before it is just ':'.
+     */
+    private static byte[] encodeAcs(byte[] data, int perRow) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+        byte[] row = new byte[perRow * 2];
+        int rows = perRow == 0? 0:data.length / perRow;
+
+        for(int r = 0; r < rows; r++) {
+            int offset = r * perRow;
+            if (r > 0 && sameAsPreviousRow(data, offset, perRow)) {
+                out.write(':');
+                continue;
+            }
+
+            for(int i = 0; i < perRow; i++) {
+                row[i * 2] = HEX[(data[offset + i] & 0xF0) >>> 4];
+                row[i * 2 + 1] = HEX[data[offset + i] & 0x0F];
+            }
+
+            // trailing zeros or ones can be dropped for a single fill character
+            int end = row.length;
+            while(end > 0 && row[end - 1] == row[row.length - 1]) {
+                end--;
+            }
+            boolean fill = row[row.length - 1] == '0' || row[row.length - 1] == 'F';
+            if (!fill) {
+                end = row.length;
+            }
+
+            int i = 0;
+            while(i < end) {
+                int run = 1;
+                while(i + run < end && row[i + run] == row[i]) {
+                    run++;
+                }
+                writeRun(out, row[i], run);
+                i += run;
+            }
+
+            if (fill) {
+                out.write(row[row.length - 1] == '0'? ',':'!');
+            }
+        }
+
+        return out.toByteArray();
+    }
+
+    private static boolean sameAsPreviousRow(byte[] data, int offset, int perRow) {
+        for(int i = 0; i < perRow; i++) {
+            if (data[offset + i] != data[offset - perRow + i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static void writeRun(ByteArrayOutputStream out, byte digit, int run) {
+        while(run > 0) {
+            int count = Math.min(run, 419);
+            if (count > 1) {
+                if (count >= 20) {
+                    out.write('f' + count / 20); // g = 20 ... z = 400
+                }
+                if (count % 20 > 0) {
+                    out.write('F' + count % 20); // G = 1 ... Y = 19
+                }
+            }
+            out.write(digit);
+            run -= count;
+        }
+    }
+
+    private static byte[] encodeZ64(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        deflater.setInput(data);
+        deflater.finish();
+
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream(data.length / 4 + 64);
+        byte[] buffer = new byte[8192];
+        while(!deflater.finished()) {
+            int len = deflater.deflate(buffer);
+            deflated.write(buffer, 0, len);
+        }
+        deflater.end();
+
+        byte[] encoded = Base64.getEncoder().encode(deflated.toByteArray());
+        String crc = String.format("%04x", crc16(encoded));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(encoded.length + 11);
+        out.write(':');
+        out.write('Z');
+        out.write('6');
+        out.write('4');
+        out.write(':');
+        out.write(encoded, 0, encoded.length);
+        out.write(':');
+        byte[] crcBytes = crc.getBytes(StandardCharsets.US_ASCII);
+        out.write(crcBytes, 0, crcBytes.length);
+
+        return out.toByteArray();
+    }
+
+    /**
+     * CRC-16/CCITT (XMODEM) of the base64 text, as expected after a Z64 field
+     */
+    private static int crc16(byte[] bytes) {
+        int crc = 0;
+        for(byte b : bytes) {
+            crc ^= (b & 0xFF) << 8;
+            for(int i = 0; i < 8; i++) {
+                crc = (crc & 0x8000) != 0? (crc << 1) ^ 0x1021:crc << 1;
+            }
+        }
+
+        return crc & 0xFFFF;
+    }
+
+}
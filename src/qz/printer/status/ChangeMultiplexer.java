@@ -0,0 +1,252 @@
+package qz.printer.status;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Watches many change sources (e.g. one change notification per printer) from a few threads, each waiting on a
+ * batch of them at once instead of one thread blocking on every source.
+ * <p>
+ * How a thread waits is left to a {@link Waiter}, so the same threading is used with the native spooler and a fake
+ * one.  A source is only ever attached, read and closed by the thread waiting on it, since a native handle can't
+ * safely be closed while another thread waits on it; sources added or removed meanwhile are picked up once the
+ * waiting thread is woken.
+ */
+public class ChangeMultiplexer<S extends ChangeMultiplexer.Source> {
+
+    private static final Logger log = LogManager.getLogger(ChangeMultiplexer.class);
+
+    private static final long RETRY_INTERVAL = 1000; // milliseconds
+
+    /**
+     * Something that signals when it has a change to read
+     */
+    public interface Source {
+        /**
+         * Starts or restarts watching for changes
+         *
+         * @return Whether changes can now be waited on
+         */
+        boolean attach();
+
+        /**
+         * Reads the change that was signalled and dispatches it
+         *
+         * @return Whether changes can still be waited on, {@code false} to attach again later
+         */
+        boolean ingestChange();
+
+        /**
+         * Stops watching for changes
+         */
+        void close();
+    }
+
+    /**
+     * Waits on a batch of sources at once for a single thread
+     */
+    public interface Waiter<S> {
+        /**
+         * Blocks until one of {@code sources} signals, {@link #wake()} is called or the timeout passes
+         *
+         * @param timeout Milliseconds to wait, {@code -1} to wait indefinitely
+         * @return The index of the source that signalled, or {@code -1} if woken or timed out
+         */
+        int await(List<S> sources, long timeout) throws InterruptedException;
+
+        /**
+         * Stops the current or next {@link #await} early
+         */
+        void wake();
+
+        void close();
+    }
+
+    private final String name;
+    private final int capacity;
+    private final Supplier<? extends Waiter<S>> waiters;
+
+    // guarded by this
+    private final List<Group> groups = new ArrayList<>();
+    private int created;
+
+    /**
+     * @param name     Name prefix of the waiting threads
+     * @param capacity Most sources a single thread waits on
+     * @param waiters  Creates the waiter of each new thread
+     */
+    public ChangeMultiplexer(String name, int capacity, Supplier<? extends Waiter<S>> waiters) {
+        this.name = name;
+        this.capacity = Math.max(1, capacity);
+        this.waiters = waiters;
+    }
+
+    /**
+     * Starts watching {@code source} on a thread with room for it, starting a new thread if none has
+     */
+    public synchronized void add(S source) {
+        for(Group group : groups) {
+            if (group.sources.size() < capacity) {
+                group.sources.add(source);
+                group.waiter.wake();
+                return;
+            }
+        }
+
+        Group group = new Group(name + "-" + ++created);
+        group.sources.add(source);
+        groups.add(group);
+        group.thread.start();
+    }
+
+    /**
+     * Stops watching {@code source}, closing it once its thread is no longer waiting on it
+     */
+    public synchronized void remove(S source) {
+        for(Iterator<Group> it = groups.iterator(); it.hasNext(); ) {
+            Group group = it.next();
+            if (group.sources.remove(source)) {
+                if (group.sources.isEmpty()) {
+                    group.closing = true;
+                    it.remove();
+                }
+                group.waiter.wake();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stops watching every source and ends all threads
+     */
+    public synchronized void close() {
+        for(Group group : groups) {
+            group.sources.clear();
+            group.closing = true;
+            group.waiter.wake();
+        }
+        groups.clear();
+    }
+
+    public synchronized int getThreadCount() {
+        return groups.size();
+    }
+
+    /**
+     * A thread and the sources it waits on
+     */
+    private class Group implements Runnable {
+        private final Waiter<S> waiter = waiters.get();
+        private final Thread thread;
+
+        // sources to watch, guarded by the multiplexer
+        private final List<S> sources = new ArrayList<>();
+        private volatile boolean closing;
+
+        // only touched by the waiting thread
+        private final List<S> watching = new ArrayList<>();
+        private final List<S> detached = new ArrayList<>();
+        private long nextRetry;
+
+        Group(String name) {
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while(!closing) {
+                    update();
+
+                    int index = waiter.await(watching, detached.isEmpty()? -1:RETRY_INTERVAL);
+                    if (index >= 0) {
+                        // the first signalled source is always reported first, so move it last so a busy one can't hide the rest
+                        S source = watching.remove(index);
+                        track(source, ingest(source));
+                    }
+                }
+            }
+            catch(InterruptedException e) {
+                log.warn("Stopped waiting for changes on {}", thread.getName());
+            }
+            finally {
+                for(S source : watching) { source.close(); }
+                for(S source : detached) { source.close(); }
+                waiter.close();
+            }
+        }
+
+        /**
+         * Closes sources that were removed, attaches new ones and retries detached ones when due
+         */
+        private void update() {
+            Set<S> current;
+            synchronized(ChangeMultiplexer.this) {
+                current = Collections.newSetFromMap(new IdentityHashMap<>());
+                current.addAll(sources);
+            }
+
+            for(Iterator<S> it = watching.iterator(); it.hasNext(); ) {
+                S source = it.next();
+                if (!current.remove(source)) {
+                    it.remove();
+                    source.close();
+                }
+            }
+            for(Iterator<S> it = detached.iterator(); it.hasNext(); ) {
+                S source = it.next();
+                if (!current.remove(source)) {
+                    it.remove();
+                    source.close();
+                }
+            }
+            for(S source : current) {
+                attach(source);
+            }
+
+            if (!detached.isEmpty() && System.currentTimeMillis() >= nextRetry) {
+                List<S> retrying = new ArrayList<>(detached);
+                detached.clear();
+                for(S source : retrying) {
+                    attach(source);
+                }
+            }
+        }
+
+        private void attach(S source) {
+            boolean attached;
+            try {
+                attached = source.attach();
+            }
+            catch(Exception e) {
+                log.warn("Failed to watch for changes", e);
+                attached = false;
+            }
+            track(source, attached);
+        }
+
+        private boolean ingest(S source) {
+            try {
+                return source.ingestChange();
+            }
+            catch(Exception e) {
+                log.error("Failed to read change", e);
+                return true;
+            }
+        }
+
+        private void track(S source, boolean attached) {
+            if (attached) {
+                watching.add(source);
+            } else {
+                if (detached.isEmpty()) { nextRetry = System.currentTimeMillis() + RETRY_INTERVAL; }
+                detached.add(source);
+            }
+        }
+    }
+
+}
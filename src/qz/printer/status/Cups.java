@@ -75,4 +75,5 @@ public interface Cups extends Library {
 
     void ippDelete(Pointer ipp);
     void httpClose(Pointer http);
+    void httpSetTimeout(Pointer http, double timeout, Pointer cb, Pointer user_data);
 }
@@ -0,0 +1,184 @@
+package qz.printer.status;
+
+import com.sun.jna.Pointer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import qz.common.Metrics;
+import qz.printer.status.Cups.IPP;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * Keeps a small pool of connections to the CUPS server, so independent IPP requests (e.g. polling statuses while a
+ * job is sent) each check out their own connection and run at the same time, instead of all waiting on one.
+ * <p>
+ * CUPS connections aren't thread safe, so each is only ever used by one request at a time.  A connection a request
+ * failed on is closed rather than reused, and idle connections the server closed are reconnected by CUPS itself.
+ */
+public class CupsConnectionPool {
+
+    private static final Logger log = LogManager.getLogger(CupsConnectionPool.class);
+
+    private static final Metrics.Counter opened = Metrics.counter("cupsConnections.opened");
+    private static final Metrics.Counter timeouts = Metrics.counter("cupsConnections.timeouts");
+    private static final Metrics.Timer waitTimer = Metrics.timer("cupsConnections.waitTime");
+    private static final Metrics.Timer requestTimer = Metrics.timer("cupsConnections.requestTime");
+
+    // guarded by CupsConnectionPool.class
+    private static final Deque<Pointer> idle = new ArrayDeque<>();
+    private static int open = 0;
+
+    private static int maxConnections = 4;
+    private static int timeout = 0;
+
+    static {
+        Metrics.gauge("cupsConnections.idle", CupsConnectionPool::getIdleCount);
+        Metrics.gauge("cupsConnections.inUse", CupsConnectionPool::getInUseCount);
+    }
+
+    /**
+     * @param maxConnections Most connections open to the CUPS server at once
+     * @param timeout        Milliseconds to wait for a free connection and then for the server to respond, {@code 0} to wait indefinitely
+     */
+    public static synchronized void configure(int maxConnections, int timeout) {
+        CupsConnectionPool.maxConnections = Math.max(1, maxConnections);
+        CupsConnectionPool.timeout = Math.max(0, timeout);
+        CupsConnectionPool.class.notifyAll();
+    }
+
+    /**
+     * Sends {@code request} over a free connection, as {@code cupsDoRequest} would
+     *
+     * @return The response, or {@code null} if the request failed or no connection was free in time
+     */
+    static Pointer doRequest(Pointer request, String resource) {
+        return execute(request, http -> Cups.INSTANCE.cupsDoRequest(http, request, resource));
+    }
+
+    /**
+     * Sends {@code request} with the contents of {@code fileName} over a free connection, as {@code cupsDoFileRequest} would
+     *
+     * @return The response, or {@code null} if the request failed or no connection was free in time
+     */
+    static Pointer doFileRequest(Pointer request, String resource, String fileName) {
+        return execute(request, http -> Cups.INSTANCE.cupsDoFileRequest(http, request, resource, fileName));
+    }
+
+    private static Pointer execute(Pointer request, Function<Pointer,Pointer> call) {
+        Pointer http;
+        try {
+            http = borrow();
+        }
+        catch(TimeoutException | InterruptedException e) {
+            if (e instanceof InterruptedException) { Thread.currentThread().interrupt(); }
+            log.warn("No connection to the CUPS server was free for a request: {}", e.getMessage());
+            // the request is normally freed by CUPS once sent
+            Cups.INSTANCE.ippDelete(request);
+            return null;
+        }
+
+        boolean healthy = false;
+        try {
+            long start = System.nanoTime();
+            Pointer response = call.apply(http);
+            requestTimer.recordSince(start);
+
+            healthy = response != null;
+            return response;
+        }
+        finally {
+            release(http, healthy);
+        }
+    }
+
+    private static Pointer borrow() throws TimeoutException, InterruptedException {
+        long start = System.nanoTime();
+        synchronized(CupsConnectionPool.class) {
+            while(idle.isEmpty() && open >= maxConnections) {
+                if (timeout == 0) {
+                    CupsConnectionPool.class.wait();
+                    continue;
+                }
+
+                long remaining = TimeUnit.MILLISECONDS.toNanos(timeout) - (System.nanoTime() - start);
+                if (remaining <= 0) {
+                    timeouts.increment();
+                    throw new TimeoutException("Timed out after " + timeout + "ms waiting for one of " + maxConnections + " connections");
+                }
+                TimeUnit.NANOSECONDS.timedWait(CupsConnectionPool.class, remaining);
+            }
+            waitTimer.recordSince(start);
+
+            if (!idle.isEmpty()) {
+                return idle.pop();
+            }
+            open++;
+        }
+
+        // connect outside the lock, so other requests can still take idle connections meanwhile
+        Cups cups = Cups.INSTANCE;
+        Pointer http;
+        try {
+            http = cups.httpConnectEncrypt(cups.cupsServer(), IPP.PORT, cups.cupsEncryption());
+        }
+        catch(RuntimeException | Error e) {
+            release(null, false);
+            throw e;
+        }
+
+        if (http != null) {
+            opened.increment();
+            if (timeout > 0) { cups.httpSetTimeout(http, timeout / 1000.0, null, null); }
+        }
+
+        // a null connection has CUPS use its default one instead, as before pooling
+        return http;
+    }
+
+    private static void release(Pointer http, boolean healthy) {
+        synchronized(CupsConnectionPool.class) {
+            if (http != null && healthy && open <= maxConnections) {
+                idle.push(http);
+                CupsConnectionPool.class.notify();
+                return;
+            }
+            open--;
+            CupsConnectionPool.class.notify();
+        }
+
+        if (http != null) {
+            log.debug("Closing connection to the CUPS server");
+            Cups.INSTANCE.httpClose(http);
+        }
+    }
+
+    /**
+     * Closes every idle connection, connections in use are kept for later requests once released
+     */
+    static void closeIdle() {
+        Deque<Pointer> closing;
+        synchronized(CupsConnectionPool.class) {
+            closing = new ArrayDeque<>(idle);
+            open -= idle.size();
+            idle.clear();
+            CupsConnectionPool.class.notifyAll();
+        }
+
+        for(Pointer http : closing) {
+            Cups.INSTANCE.httpClose(http);
+        }
+    }
+
+    private static synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    private static synchronized int getInUseCount() {
+        return open - idle.size();
+    }
+
+}
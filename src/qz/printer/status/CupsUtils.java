@@ -25,20 +25,14 @@ public class CupsUtils {
 
     private static Cups cups = Cups.INSTANCE;
 
-    private static Pointer http;
     private static int subscriptionID = IPP.INT_UNDEFINED;
 
-    static Pointer getCupsHttp() {
-        if (http == null) http = cups.httpConnectEncrypt(cups.cupsServer(), IPP.PORT, cups.cupsEncryption());
-        return http;
+    static Pointer doRequest(Pointer request, String resource) {
+        return CupsConnectionPool.doRequest(request, resource);
     }
 
-    static synchronized Pointer doRequest(Pointer request, String resource) {
-        return cups.cupsDoRequest(getCupsHttp(), request, resource);
-    }
-
-    static synchronized Pointer doFileRequest(Pointer request, String resource, String fileName) {
-        return cups.cupsDoFileRequest(getCupsHttp(), request, resource, fileName);
+    static Pointer doFileRequest(Pointer request, String resource, String fileName) {
+        return CupsConnectionPool.doFileRequest(request, resource, fileName);
     }
 
     static Pointer listSubscriptions() {
@@ -229,12 +223,9 @@ public class CupsUtils {
     }
 
     public synchronized static void freeIppObjs() {
-        if (http != null) {
-            endSubscription(subscriptionID);
-            subscriptionID = IPP.INT_UNDEFINED;
-            cups.httpClose(http);
-            http = null;
-        }
+        endSubscription(subscriptionID);
+        subscriptionID = IPP.INT_UNDEFINED;
+        CupsConnectionPool.closeIdle();
     }
 
     static ArrayList<Integer> parseJobIds(Pointer response) {
@@ -16,6 +16,7 @@ public class Status {
     private EventType eventType;
     private int jobId; // job statuses only
     private String jobName; // job status only
+    private final long received = System.nanoTime();
 
     enum EventType {
         JOB,
@@ -78,6 +79,13 @@ public class Status {
         return jobId;
     }
 
+    /**
+     * @return When the native status event was received, as returned by <code>System.nanoTime()</code>
+     */
+    public long getReceived() {
+        return received;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if(obj != null && obj instanceof Status) {
@@ -0,0 +1,208 @@
+package qz.printer.status;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import qz.common.Metrics;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fans printer statuses out to the sessions listening for them.
+ * <p>
+ * Native status threads only add statuses to a lock-free queue, which a single dispatch thread drains in batches,
+ * handing each listening {@link StatusSession} all of its statuses from the batch at once.  Each session buffers
+ * them up to a limit and sends them on a small pool of sender threads.  Sends to different sessions don't share a
+ * lock, so a slow client only ties up the sender thread it's on, never the dispatch thread or the other senders.
+ * <p>
+ * Statuses are handed on in groups, one for each printer and job of a native event, since a printer or job can
+ * report several statuses at once (e.g. paper out and error) and they only make sense together.
+ */
+public class StatusDispatcher {
+
+    private static final Logger log = LogManager.getLogger(StatusDispatcher.class);
+
+    private static final int BATCH_SIZE = 256;
+    private static final int SENDER_THREADS = 4;
+    private static final long KEEP_ALIVE = 60; // seconds
+
+    private static final Metrics.Counter received = Metrics.counter("status.received");
+    private static final Metrics.Timer dispatchTimer = Metrics.timer("status.dispatchTime");
+
+    private static final ConcurrentLinkedQueue<Status[]> queue = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger queued = new AtomicInteger(0);
+    private static final AtomicBoolean waiting = new AtomicBoolean(false);
+    private static final Thread dispatcher;
+    private static final ExecutorService senders;
+    private static final ScheduledExecutorService timer;
+
+    private static volatile int bufferLimit = 1024;
+    private static volatile Overflow overflow = Overflow.COALESCE;
+
+    /**
+     * What a session does with a new status once its buffer is full
+     * <ul>
+     * <li><code>COALESCE</code>: Replaces the oldest buffered statuses of the same printer and job, otherwise drops the oldest</li>
+     * <li><code>DROP_OLDEST</code>: Drops the oldest buffered statuses</li>
+     * <li><code>DROP_NEWEST</code>: Drops the new statuses</li>
+     * </ul>
+     */
+    public enum Overflow {
+        COALESCE, DROP_OLDEST, DROP_NEWEST;
+
+        public static Overflow parse(String value) {
+            if (value != null) {
+                for(Overflow overflow : values()) {
+                    if (overflow.name().replace('_', '-').equalsIgnoreCase(value.trim())) {
+                        return overflow;
+                    }
+                }
+            }
+
+            return COALESCE;
+        }
+    }
+
+    static {
+        Metrics.gauge("status.queued", queued::get);
+
+        final AtomicInteger count = new AtomicInteger(0);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(SENDER_THREADS, SENDER_THREADS, KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread sender = new Thread(runnable, "qz-status-sender-" + count.incrementAndGet());
+            sender.setDaemon(true);
+            return sender;
+        });
+        pool.allowCoreThreadTimeOut(true);
+        senders = pool;
+
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "qz-status-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        dispatcher = new Thread(StatusDispatcher::dispatchLoop, "qz-status-dispatch");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * @param bufferLimit Maximum groups of statuses waiting to be sent to a single session
+     * @param overflow    What to do with new statuses once a session's buffer is full
+     */
+    public static void configure(int bufferLimit, String overflow) {
+        StatusDispatcher.bufferLimit = Math.max(1, bufferLimit);
+        StatusDispatcher.overflow = Overflow.parse(overflow);
+        log.debug("Buffering up to {} printer statuses per listener, then {}", StatusDispatcher.bufferLimit, StatusDispatcher.overflow);
+    }
+
+    /**
+     * Queues the statuses of a native event to be sent to every session listening for them, without waiting on any lock
+     */
+    public static void dispatch(Status... statuses) {
+        if (statuses.length == 0) { return; }
+
+        queue.offer(statuses);
+        queued.incrementAndGet();
+        received.add(statuses.length);
+
+        if (waiting.get()) {
+            LockSupport.unpark(dispatcher);
+        }
+    }
+
+    private static void dispatchLoop() {
+        List<Status[]> batch = new ArrayList<>(BATCH_SIZE);
+        while(true) {
+            Status[] event;
+            while(batch.size() < BATCH_SIZE && (event = queue.poll()) != null) {
+                batch.add(event);
+            }
+
+            if (batch.isEmpty()) {
+                // flag before checking again, so a status queued in between is never missed
+                waiting.set(true);
+                if (queue.isEmpty()) {
+                    LockSupport.park(StatusDispatcher.class);
+                }
+                waiting.set(false);
+                continue;
+            }
+
+            queued.addAndGet(-batch.size());
+            long start = System.nanoTime();
+            try {
+                fanOut(batch);
+            }
+            catch(Exception e) {
+                log.error("Failed to dispatch {} printer status events", batch.size(), e);
+            }
+            dispatchTimer.recordSince(start);
+            batch.clear();
+        }
+    }
+
+    private static void fanOut(List<Status[]> batch) {
+        // each session gets everything for it from this batch at once, in order
+        Map<StatusSession,List<Status[]>> sessions = new LinkedHashMap<>();
+        for(Status[] event : batch) {
+            for(Status[] group : group(event)) {
+                StatusSnapshot.update(group);
+                for(StatusSession session : StatusMonitor.getListeners(group[0].getPrinter())) {
+                    sessions.computeIfAbsent(session, k -> new ArrayList<>()).add(group);
+                }
+            }
+        }
+
+        for(Map.Entry<StatusSession,List<Status[]>> entry : sessions.entrySet()) {
+            entry.getKey().enqueue(entry.getValue());
+        }
+    }
+
+    /**
+     * Splits the statuses of an event by printer and job
+     */
+    private static Collection<Status[]> group(Status[] event) {
+        if (event.length == 1) {
+            return Collections.singletonList(event);
+        }
+
+        Map<String,List<Status>> groups = new LinkedHashMap<>();
+        for(Status status : event) {
+            groups.computeIfAbsent(getKey(status), k -> new ArrayList<>()).add(status);
+        }
+        List<Status[]> split = new ArrayList<>(groups.size());
+        for(List<Status> group : groups.values()) {
+            split.add(group.toArray(new Status[0]));
+        }
+
+        return split;
+    }
+
+    /**
+     * @return What a status describes, statuses with the same key supersede each other
+     */
+    static String getKey(Status status) {
+        return status.getEventType() + "|" + status.getPrinter() + "|" + status.getJobId();
+    }
+
+    static int getBufferLimit() {
+        return bufferLimit;
+    }
+
+    static Overflow getOverflow() {
+        return overflow;
+    }
+
+    static void send(Runnable task) {
+        senders.execute(task);
+    }
+
+    static void schedule(Runnable task, long delayMillis) {
+        timer.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+}
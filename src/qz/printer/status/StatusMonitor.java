@@ -28,29 +28,38 @@ public class StatusMonitor {
     public static final String ALL_PRINTERS = "";
 
     private static Thread printerConnectionsThread;
-    private static Thread statusEventDispatchThread;
-    private static final HashMap<String,Thread> notificationThreadCollection = new HashMap<>();
+    private static final HashMap<String,WmiPrinterWatcher> printerWatchers = new HashMap<>();
+    private static ChangeMultiplexer<WmiPrinterWatcher> printerChanges;
     private static final HashMap<SocketConnection, StatusSession> statusSessions = new HashMap<>();
     private static final MultiMap<SocketConnection> clientPrinterConnections = new MultiMap<>();
-    private static final LinkedList<Status> statusQueue = new LinkedList<>();
+
+    // copy of the sessions listening to each printer, replaced whenever they change so statuses are dispatched without locking
+    private static volatile Map<String,List<StatusSession>> listeners = Collections.emptyMap();
 
     public synchronized static boolean launchNotificationThreads() {
         ArrayList<String> printerNameList = new ArrayList<>();
 
+        if (printerChanges == null) {
+            // a few threads each wait on a batch of printers, rather than one thread per printer
+            printerChanges = new ChangeMultiplexer<>("qz-printer-status", WmiChangeWaiter.CAPACITY, WmiChangeWaiter::new);
+        }
+
         Winspool.PRINTER_INFO_2[] printers = WinspoolUtil.getPrinterInfo2();
         for (Winspool.PRINTER_INFO_2 printer : printers) {
             printerNameList.add(printer.pPrinterName);
-            if (!notificationThreadCollection.containsKey(printer.pPrinterName)) {
-                Thread notificationThread = new WmiPrinterStatusThread(printer);
-                notificationThreadCollection.put(printer.pPrinterName, notificationThread);
-                notificationThread.start();
+            if (!printerWatchers.containsKey(printer.pPrinterName)) {
+                WmiPrinterWatcher watcher = new WmiPrinterWatcher(printer);
+                printerWatchers.put(printer.pPrinterName, watcher);
+                printerChanges.add(watcher);
             }
         }
-        //interrupt threads that don't have associated printers
-        for (Map.Entry<String,Thread> e : notificationThreadCollection.entrySet()) {
+        //stop watching printers that were removed
+        for (Iterator<Map.Entry<String,WmiPrinterWatcher>> it = printerWatchers.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String,WmiPrinterWatcher> e = it.next();
             if (!printerNameList.contains(e.getKey())) {
-                e.getValue().interrupt();
-                notificationThreadCollection.remove(e.getKey());
+                printerChanges.remove(e.getValue());
+                it.remove();
+                StatusSnapshot.remove(e.getKey());
             }
         }
 
@@ -67,10 +76,11 @@ public class StatusMonitor {
     }
 
     public synchronized static void closeNotificationThreads() {
-        for (Thread t : notificationThreadCollection.values()) {
-            t.interrupt();
+        if (printerChanges != null) {
+            printerChanges.close();
+            printerChanges = null;
         }
-        notificationThreadCollection.clear();
+        printerWatchers.clear();
 
         if (printerConnectionsThread != null) {
             printerConnectionsThread.interrupt();
@@ -85,6 +95,7 @@ public class StatusMonitor {
     public synchronized static boolean startListening(SocketConnection connection, Session session, JSONObject params) throws JSONException {
         JSONArray printerNames = params.getJSONArray("printerNames");
         statusSessions.putIfAbsent(connection, new StatusSession(session));
+        statusSessions.get(connection).setDelivery(params.optLong("coalesce", 0), params.optBoolean("batch", false));
 
         if (printerNames.isNull(0)) {  //listen to all printers
             addClientPrinterConnection(ALL_PRINTERS, connection, params);
@@ -109,7 +120,10 @@ public class StatusMonitor {
     }
 
     public synchronized static void stopListening(SocketConnection connection) {
-        statusSessions.remove(connection);
+        StatusSession session = statusSessions.remove(connection);
+        if (session != null) {
+            session.close();
+        }
         closeListener(connection);
     }
 
@@ -126,25 +140,28 @@ public class StatusMonitor {
         } else if (!clientPrinterConnections.getValues(printerName).contains(connection)) {
             clientPrinterConnections.add(printerName, connection);
         }
+        updateListeners();
     }
 
     public synchronized static void sendStatuses(SocketConnection connection) {
-        boolean sendForAllPrinters = false;
-        ArrayList<Status> statuses = isWindows() ? WmiPrinterStatusThread.getAllStatuses(): CupsUtils.getAllStatuses();
+        // only queried in full once, then kept up to date from status events while listening
+        if (!StatusSnapshot.isLoaded()) {
+            StatusSnapshot.load(() -> isWindows() ? WmiPrinterWatcher.getAllStatuses(): CupsUtils.getAllStatuses());
+        }
 
-        List<SocketConnection> connections = clientPrinterConnections.get(ALL_PRINTERS);
-        if (connections != null) {
-            sendForAllPrinters = connections.contains(connection);
+        List<String> printers = new ArrayList<>();
+        for (Map.Entry<String,List<SocketConnection>> entry : clientPrinterConnections.entrySet()) {
+            if (entry.getValue().contains(connection)) {
+                printers.add(entry.getKey());
+            }
+        }
+        if (printers.contains(ALL_PRINTERS)) {
+            printers = Collections.singletonList(ALL_PRINTERS);
         }
 
-        for (Status status : statuses) {
-            if (sendForAllPrinters) {
+        for (String printer : printers) {
+            for (Status status : StatusSnapshot.getStatuses(printer)) {
                 statusSessions.get(connection).statusChanged(status);
-            } else {
-                connections = clientPrinterConnections.get(status.getPrinter());
-                if ((connections != null) && connections.contains(connection)) {
-                    statusSessions.get(connection).statusChanged(status);
-                }
             }
         }
     }
@@ -153,7 +170,9 @@ public class StatusMonitor {
         clientPrinterConnections.entrySet().removeIf((Map.Entry<String, List<SocketConnection>> entry) -> (
                 entry.getValue().contains(connection)
         ));
+        updateListeners();
         if (clientPrinterConnections.isEmpty()) {
+            StatusSnapshot.clear();
             if (isWindows()) {
                 closeNotificationThreads();
             } else {
@@ -162,52 +181,39 @@ public class StatusMonitor {
         }
     }
 
-    private synchronized static void launchStatusEventDispatchThread() {
-        // Null is our main test to see if the thread needs to restart. If the thread was suspended, it won't be null, so check to see if it is alive as well.
-        if (statusEventDispatchThread != null && statusEventDispatchThread.isAlive()) return;
-        statusEventDispatchThread = new Thread(() -> {
-            while (!Thread.currentThread().isInterrupted() && dispatchStatusEvent()) {
-                // If we don't yield, this will constantly run dispatchStatusEvent and lock up the class, even though this thread isn't synchronized.
-                Thread.yield();
-            }
-            if (Thread.currentThread().isInterrupted()) log.warn("statusEventDispatchThread Interrupted");
-        }, "statusEventDispatchThread");
-        statusEventDispatchThread.start();
+    public static void statusChanged(Status[] statuses) {
+        StatusDispatcher.dispatch(statuses);
     }
 
-    public synchronized static void statusChanged(Status[] statuses) {
-        // Add statuses to the queue, statusEventDispatchThread will resolve these one at a time until the queue is empty
-        Collections.addAll(statusQueue, statuses);
-        if (!statusQueue.isEmpty()) {
-            // If statusEventDispatchThread isn't already running, launch it
-            launchStatusEventDispatchThread();
+    /**
+     * @return Every session listening to {@code printer}, either directly or by listening to all printers
+     */
+    static List<StatusSession> getListeners(String printer) {
+        Map<String,List<StatusSession>> current = listeners;
+        List<StatusSession> direct = current.get(printer);
+        List<StatusSession> all = current.get(ALL_PRINTERS);
+        if (direct == null || all == null) {
+            return direct != null? direct:(all != null? all:Collections.emptyList());
         }
-    }
 
-    // This is the main body of the statusEventDispatchThread.
-    // Dispatch one status event to n clients connection, based on clientPrinterConnections
-    // Returns false when there are no more statuses in the queue
-    private synchronized static boolean dispatchStatusEvent() {
-        if (statusQueue.isEmpty()) {
-            // Returning false will kill statusEventDispatchThread, but we also want to null out the value while we are still in a synchronized method
-            statusEventDispatchThread = null;
-            return false;
-        }
-        Status status = statusQueue.removeFirst();
+        LinkedHashSet<StatusSession> sessions = new LinkedHashSet<>(direct);
+        sessions.addAll(all);
+        return new ArrayList<>(sessions);
+    }
 
-        HashSet<SocketConnection> listeningConnections = new HashSet<>();
-        if (clientPrinterConnections.containsKey(status.getPrinter())) {
-            // Find every client that subscribed to this printer
-            listeningConnections.addAll(clientPrinterConnections.get(status.getPrinter()));
-        }
-        if (clientPrinterConnections.containsKey(ALL_PRINTERS)) {
-            // And find every client that subscribed to all printers
-            listeningConnections.addAll(clientPrinterConnections.get(ALL_PRINTERS));
-        }
-        for (SocketConnection connection : listeningConnections) {
-            statusSessions.get(connection).statusChanged(status);
+    private synchronized static void updateListeners() {
+        HashMap<String,List<StatusSession>> updated = new HashMap<>();
+        for(Map.Entry<String,List<SocketConnection>> entry : clientPrinterConnections.entrySet()) {
+            List<StatusSession> sessions = new ArrayList<>();
+            for(SocketConnection connection : entry.getValue()) {
+                StatusSession session = statusSessions.get(connection);
+                if (session != null) { sessions.add(session); }
+            }
+            if (!sessions.isEmpty()) {
+                updated.put(entry.getKey(), Collections.unmodifiableList(sessions));
+            }
         }
-        return true;
+        listeners = updated;
     }
 
     private static String macNameFix(String printerName) {
@@ -1,10 +1,13 @@
 package qz.printer.status;
 
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.eclipse.jetty.websocket.api.Session;
 import qz.App;
 import qz.common.Constants;
+import qz.common.Metrics;
 import qz.printer.status.job.WmiJobStatusMap;
 import qz.utils.*;
 import qz.ws.PrintSocketClient;
@@ -13,20 +16,45 @@ import qz.ws.StreamEvent;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static qz.printer.status.StatusMonitor.ALL_PRINTERS;
 
 public class StatusSession {
     private static final Logger log = LogManager.getLogger(StatusSession.class);
+
+    private static final Metrics.Counter dropped = Metrics.counter("status.dropped");
+    private static final Metrics.Counter coalesced = Metrics.counter("status.coalesced");
+    private static final Metrics.Timer latencyTimer = Metrics.timer("status.latency");
+
+    private static final int MAX_REMEMBERED = 1024;
+
     private Session session;
-    private HashMap<String, Spooler> printerSpoolerMap = new HashMap<>();
+    private Map<String, Spooler> printerSpoolerMap = new ConcurrentHashMap<>();
+
+    // groups of statuses waiting to be sent, guarded by pending
+    private final ArrayDeque<Status[]> pending = new ArrayDeque<>();
+    // latest statuses of each printer and job during the coalescing window, and the last ones queued to be sent
+    private final LinkedHashMap<String,Status[]> held = new LinkedHashMap<>();
+    private final LinkedHashMap<String,Status[]> lastQueued = new LinkedHashMap<String,Status[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String,Status[]> eldest) {
+            return size() > MAX_REMEMBERED;
+        }
+    };
+    private boolean sending;
+    private boolean flushScheduled;
+    private volatile boolean closed;
+
+    private volatile long coalesceMillis;
+    private volatile boolean batch;
 
+    // set while listening, but read on sender threads
     private class Spooler implements Cloneable {
-        public Path path;
-        public int maxJobData;
-        public PrintingUtilities.Flavor dataFlavor;
+        public volatile Path path;
+        public volatile int maxJobData;
+        public volatile PrintingUtilities.Flavor dataFlavor;
 
         public Spooler() {
             this(null, -1, PrintingUtilities.Flavor.PLAIN);
@@ -48,14 +76,210 @@ public class StatusSession {
         this.session = session;
     }
 
+    /**
+     * @param coalesceMillis How long to hold statuses before sending only the latest of each printer and job, {@code 0} to send every status
+     * @param batch          Whether to send all statuses waiting to be sent as a single event
+     */
+    public void setDelivery(long coalesceMillis, boolean batch) {
+        this.coalesceMillis = Math.max(0, coalesceMillis);
+        this.batch = batch;
+    }
+
+    /**
+     * Buffers groups of statuses to be sent in order on a sender thread, holding them for the coalescing window first if set
+     */
+    void enqueue(List<Status[]> groups) {
+        if (closed) { return; }
+
+        long window = coalesceMillis;
+        synchronized(pending) {
+            if (window > 0) {
+                for(Status[] group : groups) {
+                    Status[] superseded = held.remove(StatusDispatcher.getKey(group[0]));
+                    if (superseded != null) {
+                        // job data is only read for retained jobs, so those can't be skipped
+                        if (hasJobData(superseded)) {
+                            queue(superseded);
+                        } else {
+                            coalesced.add(superseded.length);
+                        }
+                    }
+                    held.put(StatusDispatcher.getKey(group[0]), group);
+                }
+                if (!flushScheduled) {
+                    flushScheduled = true;
+                    StatusDispatcher.schedule(this::flushHeld, window);
+                }
+                return;
+            }
+
+            for(Status[] group : groups) {
+                queue(group);
+            }
+            if (!claimSending()) { return; }
+        }
+
+        StatusDispatcher.send(this::sendPending);
+    }
+
+    /**
+     * Stops sending statuses, discarding any still buffered
+     */
+    void close() {
+        closed = true;
+        synchronized(pending) {
+            pending.clear();
+            held.clear();
+        }
+    }
+
+    private void flushHeld() {
+        synchronized(pending) {
+            flushScheduled = false;
+            for(Map.Entry<String,Status[]> entry : held.entrySet()) {
+                // a printer or job that changed back to how it was has nothing new to report
+                if (Arrays.equals(entry.getValue(), lastQueued.get(entry.getKey()))) {
+                    coalesced.add(entry.getValue().length);
+                } else {
+                    queue(entry.getValue());
+                }
+            }
+            held.clear();
+            if (closed || !claimSending()) { return; }
+        }
+
+        StatusDispatcher.send(this::sendPending);
+    }
+
+    /**
+     * Adds a group to the statuses waiting to be sent, dropping or coalescing them once the buffer is full
+     */
+    private void queue(Status[] group) {
+        if (pending.size() >= StatusDispatcher.getBufferLimit()) {
+            switch(StatusDispatcher.getOverflow()) {
+                case DROP_NEWEST:
+                    dropped.add(group.length);
+                    return;
+                case COALESCE:
+                    if (!removeOlder(group)) {
+                        // nothing to coalesce, drop the oldest instead
+                        dropped.add(pending.removeFirst().length);
+                    }
+                    break;
+                case DROP_OLDEST:
+                default:
+                    dropped.add(pending.removeFirst().length);
+            }
+        }
+
+        pending.addLast(group);
+        lastQueued.put(StatusDispatcher.getKey(group[0]), group);
+    }
+
+    private boolean claimSending() {
+        if (sending || pending.isEmpty()) { return false; }
+
+        sending = true;
+        return true;
+    }
+
+    private void sendPending() {
+        while(true) {
+            List<Status[]> groups = new ArrayList<>();
+            synchronized(pending) {
+                if (batch) {
+                    groups.addAll(pending);
+                    pending.clear();
+                } else if (!pending.isEmpty()) {
+                    groups.add(pending.removeFirst());
+                }
+                if (groups.isEmpty() || closed) {
+                    sending = false;
+                    return;
+                }
+            }
+
+            try {
+                send(groups);
+            }
+            catch(Exception e) {
+                log.warn("Failed to send printer status", e);
+            }
+        }
+    }
+
+    private void send(List<Status[]> groups) throws JSONException {
+        List<StreamEvent> streams = new ArrayList<>();
+        for(Status[] group : groups) {
+            for(Status status : group) {
+                addStreams(status, streams);
+            }
+        }
+
+        if (batch && streams.size() > 1) {
+            JSONArray events = new JSONArray();
+            for(StreamEvent stream : streams) {
+                events.put(stream.toJSONObject());
+            }
+            PrintSocketClient.sendStream(session, new StreamEvent(StreamEvent.Stream.PRINTER, StreamEvent.Type.ACTION).withData("events", events));
+        } else {
+            for(StreamEvent stream : streams) {
+                PrintSocketClient.sendStream(session, stream);
+            }
+        }
+
+        for(Status[] group : groups) {
+            for(Status status : group) {
+                latencyTimer.recordSince(status.getReceived());
+            }
+        }
+    }
+
+    /**
+     * Removes the oldest buffered statuses for the same printer and job as {@code group}, since they are about to be superseded
+     */
+    private boolean removeOlder(Status[] group) {
+        String key = StatusDispatcher.getKey(group[0]);
+        for(Iterator<Status[]> it = pending.iterator(); it.hasNext(); ) {
+            Status[] older = it.next();
+            if (key.equals(StatusDispatcher.getKey(older[0])) && !hasJobData(older)) {
+                it.remove();
+                coalesced.add(older.length);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
     public void statusChanged(Status status) {
-        PrintSocketClient.sendStream(session, createStatusStream(status));
+        List<StreamEvent> streams = new ArrayList<>(2);
+        addStreams(status, streams);
+        for(StreamEvent stream : streams) {
+            PrintSocketClient.sendStream(session, stream);
+        }
+    }
+
+    private void addStreams(Status status, List<StreamEvent> streams) {
+        streams.add(createStatusStream(status));
         // If this statusSession has printers flagged to return jobData, issue a jobData event after any 'retained' job events
-        if (status.getCode() == WmiJobStatusMap.RETAINED.getParent() && isDataPrinter(status.getPrinter())) {
-            PrintSocketClient.sendStream(session, createJobDataStream(status));
+        if (hasJobData(status)) {
+            streams.add(createJobDataStream(status));
         }
     }
 
+    private boolean hasJobData(Status status) {
+        return status.getCode() == WmiJobStatusMap.RETAINED.getParent() && isDataPrinter(status.getPrinter());
+    }
+
+    private boolean hasJobData(Status[] group) {
+        for(Status status : group) {
+            if (hasJobData(status)) { return true; }
+        }
+
+        return false;
+    }
+
     public void enableJobDataOnPrinter(String printer, int maxJobData, PrintingUtilities.Flavor dataFlavor) throws UnsupportedOperationException {
         if (!SystemUtilities.isWindows()) {
             throw new UnsupportedOperationException("Job data listeners are only supported on Windows");
@@ -107,18 +331,12 @@ public class StatusSession {
     private String getJobData(int jobId, String printer) {
         String data = null;
         try {
-            if (!printerSpoolerMap.containsKey(printer)) {
+            Spooler spooler = printerSpoolerMap.computeIfAbsent(printer, p -> {
                 // If not listening on this printer, assume we're listening on ALL_PRINTERS
-                Spooler spooler;
-                if(printerSpoolerMap.containsKey(ALL_PRINTERS)) {
-                    spooler = printerSpoolerMap.get(ALL_PRINTERS).clone();
-                } else {
-                    // we should never get here
-                    spooler = new Spooler();
-                }
-                printerSpoolerMap.put(printer, spooler);
-            }
-            Spooler spooler = printerSpoolerMap.get(printer);
+                Spooler all = printerSpoolerMap.get(ALL_PRINTERS);
+                // we should never get a null here
+                return all != null? all.clone():new Spooler();
+            });
             if (spooler.path == null) spooler.path = WindowsUtilities.getSpoolerLocation(printer);
             if (spooler.maxJobData != -1 && Files.size(spooler.path) > spooler.maxJobData) {
                 throw new IOException("File too large, omitting result. Size:" + Files.size(spooler.path) + " MaxJobData:" + spooler.maxJobData);
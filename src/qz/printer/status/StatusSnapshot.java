@@ -0,0 +1,121 @@
+package qz.printer.status;
+
+import qz.common.Metrics;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import static qz.printer.status.StatusMonitor.ALL_PRINTERS;
+
+/**
+ * The latest statuses of every printer, and on Windows of every job still queued, kept up to date from the native
+ * status events so {@code printers.getStatus} reads them from memory instead of querying every printer again.
+ * <p>
+ * Only valid while statuses are monitored, so it's loaded from a full query the first time it's read after
+ * monitoring starts and cleared once monitoring stops.  Statuses are recorded from just before that query, and win over
+ * its results since they're newer, but are ignored after monitoring stops so one dispatched late can't outlive the
+ * next query.
+ * <p>
+ * Job status events only carry the flags newly set on a job, so jobs are instead kept by the watcher with every flag
+ * they currently have, see {@link #updateJob} and {@link #removeJob}.
+ */
+class StatusSnapshot {
+
+    private static final Metrics.Counter loads = Metrics.counter("statusSnapshot.loads");
+
+    // latest group of statuses for each printer and job, by StatusDispatcher.getKey
+    private static final ConcurrentHashMap<String,Status[]> latest = new ConcurrentHashMap<>();
+    // jobs that finished while the full query ran, "printer|jobId"
+    private static final Set<String> finished = ConcurrentHashMap.newKeySet();
+    private static volatile boolean recording;
+    private static volatile boolean loaded;
+
+    static {
+        Metrics.gauge("statusSnapshot.size", latest::size);
+    }
+
+    /**
+     * Records a group of printer statuses as the latest for its printer
+     */
+    static void update(Status[] group) {
+        if (!recording || group[0].getEventType() == Status.EventType.JOB) { return; }
+
+        latest.put(StatusDispatcher.getKey(group[0]), group);
+    }
+
+    /**
+     * Records every status a job currently has, replacing its previous ones
+     */
+    static void updateJob(Status[] statuses) {
+        if (!recording || statuses.length == 0) { return; }
+
+        latest.put(StatusDispatcher.getKey(statuses[0]), statuses);
+    }
+
+    /**
+     * Forgets a job that finished
+     */
+    static void removeJob(String printer, int jobId) {
+        if (recording && !loaded) {
+            finished.add(printer + "|" + jobId);
+        }
+        latest.values().removeIf(group -> group[0].getEventType() == Status.EventType.JOB && group[0].getJobId() == jobId && printer.equals(group[0].getPrinter()));
+    }
+
+    static boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Fills the snapshot from a full {@code query}, keeping any statuses reported while it ran since they're newer
+     */
+    static void load(Supplier<List<Status>> query) {
+        latest.clear();
+        finished.clear();
+        recording = true;
+
+        Map<String,List<Status>> groups = new LinkedHashMap<>();
+        for(Status status : query.get()) {
+            if (status.getEventType() == Status.EventType.JOB && finished.contains(status.getPrinter() + "|" + status.getJobId())) {
+                continue;
+            }
+            groups.computeIfAbsent(StatusDispatcher.getKey(status), k -> new ArrayList<>()).add(status);
+        }
+        for(Map.Entry<String,List<Status>> entry : groups.entrySet()) {
+            latest.putIfAbsent(entry.getKey(), entry.getValue().toArray(new Status[0]));
+        }
+
+        loads.increment();
+        loaded = true;
+        finished.clear();
+    }
+
+    /**
+     * @return The latest statuses of {@code printer} and its jobs, or of every printer for {@link StatusMonitor#ALL_PRINTERS}
+     */
+    static List<Status> getStatuses(String printer) {
+        List<Status> statuses = new ArrayList<>();
+        for(Status[] group : latest.values()) {
+            if (printer.equals(ALL_PRINTERS) || printer.equals(group[0].getPrinter())) {
+                Collections.addAll(statuses, group);
+            }
+        }
+
+        return statuses;
+    }
+
+    /**
+     * Forgets a printer that was removed, along with its jobs
+     */
+    static void remove(String printer) {
+        latest.values().removeIf(group -> printer.equals(group[0].getPrinter()));
+    }
+
+    static void clear() {
+        recording = false;
+        loaded = false;
+        latest.clear();
+    }
+
+}
@@ -0,0 +1,58 @@
+package qz.printer.status;
+
+import com.sun.jna.platform.win32.Kernel32;
+import com.sun.jna.platform.win32.WinBase;
+import com.sun.jna.platform.win32.WinError;
+import com.sun.jna.platform.win32.WinNT;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.List;
+
+/**
+ * Waits on the change notifications of up to {@link #CAPACITY} printers at once with {@code WaitForMultipleObjects},
+ * along with an event used to wake it when printers are added or removed.
+ */
+public class WmiChangeWaiter implements ChangeMultiplexer.Waiter<WmiPrinterWatcher> {
+
+    private static final Logger log = LogManager.getLogger(WmiChangeWaiter.class);
+
+    // MAXIMUM_WAIT_OBJECTS, less the wake event
+    public static final int CAPACITY = 64 - 1;
+
+    private final WinNT.HANDLE wakeEvent = Kernel32.INSTANCE.CreateEvent(null, false, false, null);
+
+    @Override
+    public int await(List<WmiPrinterWatcher> sources, long timeout) throws InterruptedException {
+        WinNT.HANDLE[] handles = new WinNT.HANDLE[sources.size() + 1];
+        handles[0] = wakeEvent;
+        for(int i = 0; i < sources.size(); i++) {
+            handles[i + 1] = sources.get(i).getChangeHandle();
+        }
+
+        int result = Kernel32.INSTANCE.WaitForMultipleObjects(handles.length, handles, false, timeout < 0? WinBase.INFINITE:(int)timeout);
+        if (result > WinBase.WAIT_OBJECT_0 && result < WinBase.WAIT_OBJECT_0 + handles.length) {
+            return result - WinBase.WAIT_OBJECT_0 - 1;
+        }
+        if (result == WinBase.WAIT_FAILED) {
+            log.error("Failed waiting on printer changes, error number: {}", Kernel32.INSTANCE.GetLastError());
+            //if the error repeats, we don't want to lock up the cpu
+            Thread.sleep(1000);
+        } else if (result != WinBase.WAIT_OBJECT_0 && result != WinError.WAIT_TIMEOUT) {
+            log.warn("Unexpected result waiting on printer changes: {}", result);
+        }
+
+        return -1;
+    }
+
+    @Override
+    public void wake() {
+        Kernel32.INSTANCE.SetEvent(wakeEvent);
+    }
+
+    @Override
+    public void close() {
+        Kernel32.INSTANCE.CloseHandle(wakeEvent);
+    }
+
+}
@@ -13,7 +13,11 @@ import java.util.*;
 
 import static qz.printer.status.printer.WmiPrinterStatusMap.*;
 
-public class WmiPrinterStatusThread extends Thread {
+/**
+ * Reads the status changes of a single printer and its jobs from the spooler, waited on along with other printers
+ * by a {@link ChangeMultiplexer}
+ */
+public class WmiPrinterWatcher implements ChangeMultiplexer.Source {
 
     private static final Logger log = LogManager.getLogger(StatusMonitor.class);
     private final Winspool spool = Winspool.INSTANCE;
@@ -29,8 +33,8 @@ public class WmiPrinterStatusThread extends Thread {
     private int lastPrinterStatus;
 
     private boolean wasOk = false;
-    private boolean closing = false;
 
+    private WinNT.HANDLE hPrinterObject;
     private WinNT.HANDLE hChangeObject;
     private WinDef.DWORDByReference pdwChangeResult;
 
@@ -50,8 +54,7 @@ public class WmiPrinterStatusThread extends Thread {
         }
     }
 
-    public WmiPrinterStatusThread(Winspool.PRINTER_INFO_2 printerInfo2) {
-        super("Printer Status Monitor " + printerInfo2.pPrinterName);
+    public WmiPrinterWatcher(Winspool.PRINTER_INFO_2 printerInfo2) {
         printerName = printerInfo2.pPrinterName;
         holdsJobs = (printerInfo2.Attributes & Winspool.PRINTER_ATTRIBUTE_KEEPPRINTEDJOBS) > 0;
         statusField = printerInfo2.Status;
@@ -86,35 +89,43 @@ public class WmiPrinterStatusThread extends Thread {
         statusOptions.pTypes = mem[0];
     }
 
-    @Override
-    public void run() {
-
-        attachToSystem();
+    public String getPrinterName() {
+        return printerName;
+    }
 
-        if (hChangeObject != null) {
-            while(!closing) {
-                waitOnChange();
-                if (closing) { break; }
-                ingestChange();
-            }
-        }
+    /**
+     * @return The change notification to wait on, signalled when the printer or one of its jobs changes
+     */
+    WinNT.HANDLE getChangeHandle() {
+        return hChangeObject;
     }
 
-    private void attachToSystem() {
+    @Override
+    public boolean attach() {
+        close();
+
         WinNT.HANDLEByReference phPrinterObject = new WinNT.HANDLEByReference();
-        spool.OpenPrinter(printerName, phPrinterObject, null);
+        if (!spool.OpenPrinter(printerName, phPrinterObject, null)) {
+            log.warn("Unable to open printer {} to watch its status", printerName);
+            return false;
+        }
+        hPrinterObject = phPrinterObject.getValue();
 
         pdwChangeResult = new WinDef.DWORDByReference();
         //The second param determines what kind of event releases our lock
         //See https://msdn.microsoft.com/en-us/library/windows/desktop/dd162722(v=vs.85).aspx
-        hChangeObject = spool.FindFirstPrinterChangeNotification(phPrinterObject.getValue(), Winspool.PRINTER_CHANGE_JOB, 0, listenOptions);
-    }
+        hChangeObject = spool.FindFirstPrinterChangeNotification(hPrinterObject, Winspool.PRINTER_CHANGE_JOB, 0, listenOptions);
+        if (hChangeObject == null || WinBase.INVALID_HANDLE_VALUE.equals(hChangeObject)) {
+            hChangeObject = null;
+            close();
+            return false;
+        }
 
-    private void waitOnChange() {
-        Kernel32.INSTANCE.WaitForSingleObject(hChangeObject, WinBase.INFINITE);
+        return true;
     }
 
-    private void ingestChange() {
+    @Override
+    public boolean ingestChange() {
         PointerByReference dataPointer = new PointerByReference();
         if (spool.FindNextPrinterChangeNotification(hChangeObject, pdwChangeResult, statusOptions, dataPointer)) {
             // Many events fire with dataPointer == null, see also https://stackoverflow.com/questions/16283827
@@ -130,7 +141,12 @@ public class WmiPrinterStatusThread extends Thread {
             }
         } else {
             issueError();
+            // the notification is attached again after a pause, so a repeating error doesn't lock up the cpu
+            close();
+            return false;
         }
+
+        return true;
     }
 
     private void decodeStatus(Winspool.PRINTER_NOTIFY_INFO_DATA d) {
@@ -201,6 +217,7 @@ public class WmiPrinterStatusThread extends Thread {
             if (holdsJobs && docNames.get(jobId) == null && codes.size() == 1 && codes.get(0) == (int)WmiJobStatusMap.PRINTED.getRawCode()) {
                 i.remove();
                 lastJobStatusCodes.remove(jobId);
+                StatusSnapshot.removeJob(printerName, jobId);
                 continue;
             }
 
@@ -229,6 +246,10 @@ public class WmiPrinterStatusThread extends Thread {
             if (isFinalCode) {
                 docNames.remove(jobId);
                 lastJobStatusCodes.remove(jobId);
+                StatusSnapshot.removeJob(printerName, jobId);
+            } else {
+                // statuses only report flags newly set, the snapshot needs all of them
+                StatusSnapshot.updateJob(NativeStatus.fromWmiJobStatus(code, printerName, jobId, docNames.get(jobId)));
             }
         }
     }
@@ -238,18 +259,18 @@ public class WmiPrinterStatusThread extends Thread {
         log.error("WMI Error number: {}, This should be reported", errorCode);
         Status[] unknownError = { new Status(NativePrinterStatus.UNMAPPED, printerName, WmiPrinterStatusMap.UNKNOWN_STATUS.getRawCode()) };
         StatusMonitor.statusChanged(unknownError);
-        try {
-            //if the error repeats, we don't want to lock up the cpu
-            Thread.sleep(1000);
-        }
-        catch(Exception ignore) {}
     }
 
     @Override
-    public void interrupt() {
-        closing = true;
-        spool.FindClosePrinterChangeNotification(hChangeObject);
-        super.interrupt();
+    public void close() {
+        if (hChangeObject != null) {
+            spool.FindClosePrinterChangeNotification(hChangeObject);
+            hChangeObject = null;
+        }
+        if (hPrinterObject != null) {
+            spool.ClosePrinter(hPrinterObject);
+            hPrinterObject = null;
+        }
     }
 
     public static ArrayList<Status> getAllStatuses() {
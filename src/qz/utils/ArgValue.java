@@ -93,6 +93,20 @@ public enum ArgValue {
                            "websocket.secure.ports"),
     WEBSOCKET_INSECURE_PORTS(PREFERENCES, "Comma separated list of insecure websocket (ws://) ports to use", null, StringUtils.join(Constants.DEFAULT_WS_PORTS, ","),
                            "websocket.insecure.ports"),
+    WEBSOCKET_WORKER_THREADS(PREFERENCES, "Maximum number of platform threads used to process websocket messages", null, 64,
+                           "websocket.worker.threads"),
+    WEBSOCKET_WORKER_VIRTUAL(PREFERENCES, "Enable/disable processing websocket messages on virtual threads when supported by the Java runtime", null, true,
+                           "websocket.worker.virtual"),
+    WEBSOCKET_QUEUE_LIMIT(PREFERENCES, "Maximum number of pending websocket messages per connection before new requests are rejected", null, 256,
+                           "websocket.queue.limit"),
+    WEBSOCKET_BINARY_LIMIT(PREFERENCES, "Maximum number of binary payloads a websocket connection may have waiting for a request before new ones are rejected", null, 32,
+                           "websocket.binary.limit"),
+    WEBSOCKET_BINARY_BYTES(PREFERENCES, "Maximum size (in bytes) of all binary payloads a websocket connection may have waiting for a request before new ones are rejected", null, 67108864,
+                           "websocket.binary.bytes"),
+    WEBSOCKET_BINARY_TIMEOUT(PREFERENCES, "Seconds a binary payload is kept waiting for a request to use it before it is discarded", null, 60,
+                           "websocket.binary.timeout"),
+    WEBSOCKET_REAP_IDLE(PREFERENCES, "Minutes a websocket connection with nothing open or listening may go without sending any message (including keep-alive pings) before it is closed, 0 to disable", null, 0,
+                           "websocket.reap.idle"),
     LOG_DISABLE(PREFERENCES, "Disable/enable logging features", null, false,
         "log.disable"),
     LOG_ROTATE(PREFERENCES, "Number of log files to retain when the size fills up", null, 5,
@@ -102,7 +116,29 @@ public enum ArgValue {
     AUTHCERT_OVERRIDE(PREFERENCES, "Override the trusted root certificate in the software.", null, null,
         "authcert.override", "trustedRootCert"),
     PRINTER_STATUS_JOB_DATA(PREFERENCES, "Return all raw (binary) job data with job statuses (use with caution)", null, false,
-        "printer.status.jobdata");
+        "printer.status.jobdata"),
+    PRINTER_RASTER_THREADS(PREFERENCES, "Maximum number of threads used to convert a single large raw image, 0 to use all processors", null, 0,
+        "printer.raster.threads"),
+    PRINTER_RAW_MEMORY(PREFERENCES, "Maximum size (in bytes) of a raw print job held in memory before it is buffered to a temporary file, -1 to always hold in memory", null, 16777216,
+        "printer.raw.memory"),
+    PRINTER_IMAGE_CACHE(PREFERENCES, "Maximum size (in bytes) of converted raw images kept in memory for reuse, 0 to disable", null, 33554432,
+        "printer.image.cache"),
+    PRINTER_IMAGE_CACHE_DISK(PREFERENCES, "Maximum size (in bytes) of converted raw images also kept in the user directory, 0 to only keep them in memory", null, 0,
+        "printer.image.cache.disk"),
+    PRINTER_HOST_CONNECT_TIMEOUT(PREFERENCES, "Time (in milliseconds) to wait when connecting to a network printer, 0 to wait indefinitely", null, 10000,
+        "printer.host.timeout.connect"),
+    PRINTER_HOST_WRITE_TIMEOUT(PREFERENCES, "Time (in milliseconds) to wait for a network printer to accept more data, 0 to wait indefinitely", null, 0,
+        "printer.host.timeout.write"),
+    PRINTER_HOST_KEEPALIVE(PREFERENCES, "Time (in seconds) to keep a network printer connection open for the next raw job, 0 to close it after every job", null, 0,
+        "printer.host.keepalive"),
+    PRINTER_STATUS_BUFFER(PREFERENCES, "Maximum number of printer statuses waiting to be sent to a single listener before they are coalesced or dropped", null, 1024,
+        "printer.status.buffer"),
+    PRINTER_STATUS_OVERFLOW(PREFERENCES, "What to do with new printer statuses once a listener's buffer is full: coalesce, drop-oldest or drop-newest", null, "coalesce",
+        "printer.status.overflow"),
+    PRINTER_CUPS_CONNECTIONS(PREFERENCES, "Maximum number of connections open to the CUPS server at once for printer and job requests", null, 4,
+        "printer.cups.connections"),
+    PRINTER_CUPS_TIMEOUT(PREFERENCES, "Time (in milliseconds) to wait for a free CUPS connection and then for CUPS to respond, 0 to wait indefinitely", null, 0,
+        "printer.cups.timeout");
 
     private ArgType argType;
     private String description;
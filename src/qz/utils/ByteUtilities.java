@@ -32,6 +32,18 @@ public class ByteUtilities {
         BIG, LITTLE
     }
 
+    private static final byte[] BASE64_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(BASE64_VALUES, (byte)-1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+        for(int i = 0; i < alphabet.length(); i++) {
+            BASE64_VALUES[alphabet.charAt(i)] = (byte)i;
+        }
+        BASE64_VALUES['+'] = BASE64_VALUES['-'] = 62;
+        BASE64_VALUES['/'] = BASE64_VALUES['_'] = 63;
+    }
+
     /**
      * Converts a hexadecimal string to a byte array.
      * <p/>
@@ -44,20 +56,27 @@ public class ByteUtilities {
     public static byte[] hexStringToByteArray(String hex) throws NumberFormatException {
         byte[] data = new byte[0];
         if (hex != null && !hex.isEmpty()) {
-            String[] split;
             if (hex.length() > 2) {
                 if (hex.length() >= 3 && hex.contains("x")) {
                     hex = hex.startsWith("x")? hex.substring(1):hex;
                     hex = hex.endsWith("x")? hex.substring(0, hex.length() - 1):hex;
-                    split = hex.split("x");
-                } else {
-                    split = hex.split("(?<=\\G..)");
-                }
+                    String[] split = hex.split("x");
 
-                data = new byte[split.length];
-                for(int i = 0; i < split.length; i++) {
-                    Integer signedByte = Integer.parseInt(split[i], 16);
-                    data[i] = (byte)(signedByte & 0xFF);
+                    data = new byte[split.length];
+                    for(int i = 0; i < split.length; i++) {
+                        Integer signedByte = Integer.parseInt(split[i], 16);
+                        data[i] = (byte)(signedByte & 0xFF);
+                    }
+                } else {
+                    // contiguous pairs, decode in place rather than splitting into a String per byte
+                    data = new byte[(hex.length() + 1) / 2];
+                    for(int i = 0; i < data.length; i++) {
+                        int value = hexDigit(hex, i * 2);
+                        if (i * 2 + 1 < hex.length()) {
+                            value = (value << 4) | hexDigit(hex, i * 2 + 1);
+                        }
+                        data[i] = (byte)value;
+                    }
                 }
             } else if (hex.length() == 2) {
                 data = new byte[] {Byte.parseByte(hex)};
@@ -67,6 +86,54 @@ public class ByteUtilities {
         return data;
     }
 
+    private static int hexDigit(String hex, int index) throws NumberFormatException {
+        int digit = Character.digit(hex.charAt(index), 16);
+        if (digit < 0) {
+            throw new NumberFormatException("For input string: \"" + hex.substring(index - index % 2, Math.min(hex.length(), index - index % 2 + 2)) + "\"");
+        }
+
+        return digit;
+    }
+
+    /**
+     * Decodes base64 (standard or url-safe) directly from {@code data} into a byte array, without an intermediate copy of the encoded bytes.
+     * <p/>
+     * Like {@link Base64#decodeBase64(String)}, characters outside of the base64 alphabet are skipped and decoding stops at the first pad.
+     *
+     * @param data Base64 characters to decode
+     */
+    public static byte[] decodeBase64(CharSequence data) {
+        byte[] decoded = new byte[(int)((long)data.length() * 3 / 4)];
+        int length = 0;
+
+        int bits = 0;
+        int count = 0;
+        for(int i = 0; i < data.length(); i++) {
+            char c = data.charAt(i);
+            if (c == '=') { break; }
+            if (c >= BASE64_VALUES.length || BASE64_VALUES[c] < 0) { continue; }
+
+            bits = (bits << 6) | BASE64_VALUES[c];
+            if (++count == 4) {
+                decoded[length++] = (byte)(bits >> 16);
+                decoded[length++] = (byte)(bits >> 8);
+                decoded[length++] = (byte)bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+
+        // trailing partial quantum
+        if (count == 2) {
+            decoded[length++] = (byte)(bits >> 4);
+        } else if (count == 3) {
+            decoded[length++] = (byte)(bits >> 10);
+            decoded[length++] = (byte)(bits >> 2);
+        }
+
+        return length == decoded.length? decoded:Arrays.copyOf(decoded, length);
+    }
+
     public static String toString(PrintingUtilities.Flavor flavor, byte[] bytes) {
         switch(flavor) {
             case BASE64:
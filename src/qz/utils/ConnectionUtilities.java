@@ -16,6 +16,8 @@ import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
@@ -46,11 +48,7 @@ public final class ConnectionUtilities {
         try {
             URL url = new URL(urlString);
             if(protocolRestricted) {
-                String allowed = PrefsSearch.getString(ArgValue.SECURITY_DATA_PROTOCOLS);
-                if(!isAllowed(allowed, url)) {
-                    log.error("URL '{}' is not a valid http or https location.  Configure property '{}' to modify this behavior.", url, ArgValue.SECURITY_DATA_PROTOCOLS.getMatch());
-                    throw new IOException(String.format("URL '%s' is not a valid [%s] location", url, allowed));
-                }
+                checkAllowed(url);
             }
             URLConnection urlConn = url.openConnection();
             for( String key : getRequestProperties().keySet()) {
@@ -65,6 +63,40 @@ public final class ConnectionUtilities {
         }
     }
 
+    /**
+     * Resolves a {@code file:} URL to the local file it points to, so it can be read without a stream (e.g. mapped or
+     * transferred with a {@code FileChannel}), applying the same restrictions as {@link #getInputStream(String, boolean)}.
+     *
+     * @param urlString an absolute URL giving location of resource to read.
+     * @return The local file, or {@code null} if the URL is not a regular local file and must be streamed
+     */
+    public static Path getLocalFile(String urlString, boolean protocolRestricted) throws IOException {
+        URL url = new URL(urlString);
+        if(!"file".equalsIgnoreCase(url.getProtocol())) {
+            return null;
+        }
+        if(protocolRestricted) {
+            checkAllowed(url);
+        }
+
+        try {
+            Path path = Paths.get(url.toURI());
+            return Files.isRegularFile(path) ? path : null;
+        }
+        catch(URISyntaxException | IllegalArgumentException e) {
+            // e.g. a remote share, leave it to the URL handler
+            return null;
+        }
+    }
+
+    private static void checkAllowed(URL url) throws IOException {
+        String allowed = PrefsSearch.getString(ArgValue.SECURITY_DATA_PROTOCOLS);
+        if(!isAllowed(allowed, url)) {
+            log.error("URL '{}' is not a valid http or https location.  Configure property '{}' to modify this behavior.", url, ArgValue.SECURITY_DATA_PROTOCOLS.getMatch());
+            throw new IOException(String.format("URL '%s' is not a valid [%s] location", url, allowed));
+        }
+    }
+
     private static boolean isAllowed(String allowed, URL url) {
         if(url == null) return false;
         String urlProtocol = url.getProtocol();
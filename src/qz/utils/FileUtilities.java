@@ -24,6 +24,7 @@ import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 import qz.App;
 import qz.auth.Certificate;
+import qz.auth.FingerprintIndex;
 import qz.auth.RequestState;
 import qz.common.ByteArrayBuilder;
 import qz.common.Constants;
@@ -593,6 +594,12 @@ public class FileUtilities {
     }
 
     public static byte[] readRawFile(String url) throws IOException {
+        // local files are read in one go at their known size
+        Path local = ConnectionUtilities.getLocalFile(url, true);
+        if (local != null) {
+            return Files.readAllBytes(local);
+        }
+
         return readFile(new DataInputStream(ConnectionUtilities.getInputStream(url, true)));
     }
 
@@ -602,9 +609,7 @@ public class FileUtilities {
 
         int len;
         while((len = in.read(buffer)) > -1) {
-            byte[] temp = new byte[len];
-            System.arraycopy(buffer, 0, temp, 0, len);
-            cmds.append(temp);
+            cmds.append(buffer, 0, len);
         }
         in.close();
 
@@ -655,6 +660,9 @@ public class FileUtilities {
         catch(IOException e) {
             log.error("Cannot write to file {}", fileName, e);
         }
+        finally {
+            FingerprintIndex.invalidate(file);
+        }
 
         return false;
     }
@@ -743,6 +751,9 @@ public class FileUtilities {
             log.error("Unable to delete line from file", e);
             return false;
         }
+        finally {
+            FingerprintIndex.invalidate(file);
+        }
     }
 
     /**
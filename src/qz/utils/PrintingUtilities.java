@@ -16,9 +16,11 @@ import qz.printer.PrintOutput;
 import qz.printer.PrintServiceMatcher;
 import qz.printer.action.PrintProcessor;
 import qz.printer.action.ProcessorFactory;
+import qz.printer.action.raw.GraphicCache;
 import qz.printer.info.NativePrinter;
 import qz.printer.status.CupsUtils;
 import qz.printer.status.job.WmiJobStatusMap;
+import qz.ws.BinaryPayloads;
 import qz.ws.PrintSocketClient;
 
 import javax.print.PrintException;
@@ -50,7 +52,7 @@ public class PrintingUtilities {
      * TODO: Move this to a dedicated class
      */
     public enum Flavor {
-        BASE64, FILE, HEX, PLAIN, XML;
+        BASE64, BINARY, FILE, HEX, PLAIN, XML;
 
         // TODO: Refactor DeviceUtilities to use optString("flavor") instead of optString("type")
         @Deprecated
@@ -77,7 +79,10 @@ public class PrintingUtilities {
             try {
                 switch(this) {
                     case BASE64:
-                        return Base64.decodeBase64(data);
+                        return ByteUtilities.decodeBase64(data);
+                    case BINARY:
+                        // Sent separately as a binary websocket frame
+                        return BinaryPayloads.take(data);
                     case FILE:
                         return FileUtilities.readRawFile(data);
                     case HEX:
@@ -227,6 +232,15 @@ public class PrintingUtilities {
         }
     }
 
+    /**
+     * Forgets the graphics stored on the printer in {@code params}, or on every printer if none is given,
+     * so they will be sent in full the next time they are printed
+     */
+    public static void clearGraphics(JSONObject params) throws JSONException {
+        JSONObject printer = params.optJSONObject("printer");
+        GraphicCache.clear(printer == null? null:new PrintOutput(printer).getDestination());
+    }
+
     public static void cancelJobs(Session session, String UID, JSONObject params) {
         try {
             NativePrinter printer = PrintServiceMatcher.matchPrinter(params.getString("printerName"));
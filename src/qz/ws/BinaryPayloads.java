@@ -0,0 +1,196 @@
+package qz.ws;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import qz.common.Metrics;
+import qz.utils.ArgValue;
+import qz.utils.PrefsSearch;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds raw payloads received as binary websocket frames until a request references them using the {@code BINARY} flavor.
+ * <p>
+ * Each binary frame is laid out as:
+ * <pre>
+ *   [1 byte]  version, currently 1
+ *   [2 bytes] length of the key, big-endian
+ *   [n bytes] key, UTF-8
+ *   [...]     payload
+ * </pre>
+ * The key must be the lowercase hex SHA-256 of the payload. A request then uses <code>{ "flavor": "binary", "data": "&lt;key&gt;" }</code>
+ * in place of base64 or hex data, so a signed request still covers the content it prints or sends.
+ * <p>
+ * Payloads are kept per connection and can only be used by requests of the connection that sent them.  The same
+ * payload sent twice is kept twice, once for each request using it, and payloads are released once read or when
+ * their connection closes.
+ * <p>
+ * Since payloads are stored before any request is approved, each connection may only have a limited number and size
+ * of them waiting, further payloads are rejected, and payloads no request has used in time are discarded.
+ */
+public class BinaryPayloads {
+
+    private static final Logger log = LogManager.getLogger(BinaryPayloads.class);
+
+    public static final int VERSION = 1;
+    private static final int HEADER_SIZE = 3;
+
+    // payloads of the connection whose request is being processed on this thread
+    private static final ThreadLocal<BinaryPayloads> current = new ThreadLocal<>();
+
+    private static final AtomicInteger pending = new AtomicInteger(0);
+    private static final Metrics.Counter received = Metrics.counter("binary.received");
+    private static final Metrics.Counter receivedBytes = Metrics.counter("binary.receivedBytes");
+    private static final Metrics.Counter rejected = Metrics.counter("binary.rejected");
+    private static final Metrics.Counter expired = Metrics.counter("binary.expired");
+
+    private static volatile int countLimit = 32;
+    private static volatile long byteLimit = 64 * 1024 * 1024;
+    private static volatile long timeoutMillis = TimeUnit.SECONDS.toMillis(60);
+
+    static {
+        Metrics.gauge("binary.pending", pending::get);
+    }
+
+    // key -> payloads in the order received, guarded by this
+    private final HashMap<String,ArrayDeque<Payload>> payloads = new HashMap<>();
+    private int count;
+    private long bytes;
+
+    private static class Payload {
+        private final byte[] data;
+        private final long receivedAt = System.currentTimeMillis();
+
+        Payload(byte[] data) {
+            this.data = data;
+        }
+    }
+
+    /**
+     * Sets the limits of every connection using the websocket preferences found in {@code props}
+     */
+    public static void configure(Properties... props) {
+        countLimit = Math.max(1, PrefsSearch.getInt(ArgValue.WEBSOCKET_BINARY_LIMIT, props));
+        byteLimit = Math.max(1, PrefsSearch.getInt(ArgValue.WEBSOCKET_BINARY_BYTES, props));
+        timeoutMillis = TimeUnit.SECONDS.toMillis(Math.max(1, PrefsSearch.getInt(ArgValue.WEBSOCKET_BINARY_TIMEOUT, props)));
+        log.info("Keeping up to {} binary payloads ({} bytes) per connection for {} ms", countLimit, byteLimit, timeoutMillis);
+    }
+
+    /**
+     * Parses and stores a binary frame sent by this connection
+     *
+     * @return The key the payload can be referenced by
+     * @throws IOException If the frame is malformed, the payload does not match its key or the connection has too many payloads waiting
+     */
+    public String receive(byte[] frame, int offset, int length) throws IOException {
+        if (length < HEADER_SIZE || frame[offset] != VERSION) {
+            throw new IOException("Unsupported binary frame");
+        }
+
+        int keyLength = ((frame[offset + 1] & 0xFF) << 8) | (frame[offset + 2] & 0xFF);
+        if (length < HEADER_SIZE + keyLength) {
+            throw new IOException("Binary frame is truncated");
+        }
+
+        String key = new String(frame, offset + HEADER_SIZE, keyLength, StandardCharsets.UTF_8);
+        byte[] payload = Arrays.copyOfRange(frame, offset + HEADER_SIZE + keyLength, offset + length);
+
+        if (!DigestUtils.sha256Hex(payload).equals(key)) {
+            throw new IOException(String.format("Binary payload does not match key [%s]", key));
+        }
+
+        synchronized(this) {
+            evictExpired();
+            if (count + 1 > countLimit || bytes + payload.length > byteLimit) {
+                rejected.increment();
+                throw new IOException(String.format("Binary payload [%s] rejected, %d payloads (%d bytes) are already waiting", key, count, bytes));
+            }
+
+            payloads.computeIfAbsent(key, k -> new ArrayDeque<>()).addLast(new Payload(payload));
+            count++;
+            bytes += payload.length;
+        }
+        pending.incrementAndGet();
+        received.increment();
+        receivedBytes.add(payload.length);
+        log.debug("Received {} byte binary payload [{}]", payload.length, key);
+
+        return key;
+    }
+
+    /**
+     * Removes and returns the oldest payload stored under {@code key} by the connection whose request is being processed
+     */
+    public static byte[] take(String key) throws IOException {
+        BinaryPayloads owner = current.get();
+        byte[] payload = owner == null || key == null? null:owner.remove(key.trim().toLowerCase(Locale.ENGLISH));
+        if (payload == null) {
+            throw new IOException(String.format("Binary payload [%s] was not received", key));
+        }
+
+        return payload;
+    }
+
+    private synchronized byte[] remove(String key) {
+        evictExpired();
+        ArrayDeque<Payload> queued = payloads.get(key);
+        if (queued == null) { return null; }
+
+        Payload payload = queued.pollFirst();
+        if (queued.isEmpty()) {
+            payloads.remove(key);
+        }
+        count--;
+        bytes -= payload.data.length;
+        pending.decrementAndGet();
+
+        return payload.data;
+    }
+
+    /**
+     * Discards payloads which no request has used within the timeout
+     */
+    public synchronized void evictExpired() {
+        long oldest = System.currentTimeMillis() - timeoutMillis;
+        for(Iterator<ArrayDeque<Payload>> it = payloads.values().iterator(); it.hasNext(); ) {
+            ArrayDeque<Payload> queued = it.next();
+            while(!queued.isEmpty() && queued.peekFirst().receivedAt < oldest) {
+                Payload payload = queued.pollFirst();
+                count--;
+                bytes -= payload.data.length;
+                pending.decrementAndGet();
+                expired.increment();
+            }
+            if (queued.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Makes {@code connection}'s payloads available to {@link #take(String)} on this thread while processing its request
+     */
+    public static void bind(SocketConnection connection) {
+        current.set(connection.getBinaryPayloads());
+    }
+
+    public static void unbind() {
+        current.remove();
+    }
+
+    /**
+     * Discards any payloads which were never used
+     */
+    public synchronized void release() {
+        pending.addAndGet(-count);
+        payloads.clear();
+        count = 0;
+        bytes = 0;
+    }
+
+}
@@ -0,0 +1,110 @@
+package qz.ws;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import qz.common.Metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread-safe lookup of the {@link SocketConnection} belonging to each open websocket {@link Session}
+ */
+public class ConnectionRegistry {
+
+    private static final Logger log = LogManager.getLogger(ConnectionRegistry.class);
+
+    private static final long REAP_INTERVAL = 60; // seconds
+
+    private static final ConcurrentHashMap<Session,SocketConnection> connections = new ConcurrentHashMap<>();
+    private static final Metrics.Counter opened = Metrics.counter("connections.opened");
+    private static final Metrics.Counter reaped = Metrics.counter("connections.reaped");
+
+    private static ScheduledExecutorService reaper;
+
+    static {
+        Metrics.gauge("connections.open", connections::size);
+    }
+
+    public static void register(Session session, SocketConnection connection) {
+        connections.put(session, connection);
+        opened.increment();
+    }
+
+    public static SocketConnection get(Session session) {
+        return connections.get(session);
+    }
+
+    public static SocketConnection remove(Session session) {
+        return connections.remove(session);
+    }
+
+    public static int size() {
+        return connections.size();
+    }
+
+    /**
+     * Marks the connection of {@code session} as active, deferring it from being reaped
+     */
+    public static void touch(Session session) {
+        SocketConnection connection = connections.get(session);
+        if (connection != null) {
+            connection.markActive();
+        }
+    }
+
+    /**
+     * Periodically closes connections which have no pending requests, have not sent any messages (including keep-alive pings)
+     * for {@code idleMinutes} and hold nothing open, and discards any whose session has closed without notifying us.
+     * Binary payloads left unused past their timeout are discarded along the way.
+     * <p>
+     * Connections that only listen (e.g. to printer statuses or an open serial port) can go quiet indefinitely, so they're never closed for being idle.
+     *
+     * @param idleMinutes Minutes of inactivity allowed, {@code 0} only discards closed sessions
+     */
+    public static synchronized void startReaping(int idleMinutes) {
+        if (reaper != null) {
+            reaper.shutdownNow();
+        }
+
+        final long idleMillis = TimeUnit.MINUTES.toMillis(Math.max(0, idleMinutes));
+        reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "qz-connection-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reaper.scheduleWithFixedDelay(() -> reap(idleMillis), REAP_INTERVAL, REAP_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    private static void reap(long idleMillis) {
+        for(Map.Entry<Session,SocketConnection> entry : connections.entrySet()) {
+            Session session = entry.getKey();
+            SocketConnection connection = entry.getValue();
+            connection.getBinaryPayloads().evictExpired();
+
+            if (!session.isOpen()) {
+                if (connections.remove(session, connection)) {
+                    log.warn("Discarding stale connection from {}", session.getRemoteAddress());
+                    reaped.increment();
+                    try {
+                        connection.disconnect();
+                    }
+                    catch(Exception e) {
+                        log.error("Failed to close communication channel", e);
+                    }
+                }
+            } else if (idleMillis > 0 && connection.getIdleMillis() > idleMillis && connection.getPendingCount() == 0 && !connection.hasOpenChannels()) {
+                log.info("Closing connection from {}, idle for {} ms", session.getRemoteAddress(), connection.getIdleMillis());
+                reaped.increment();
+                // onClose will remove and disconnect it
+                session.close(StatusCode.SHUTDOWN, "Idle timeout");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+package qz.ws;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Runs tasks for a single resource (e.g. a serial port) strictly in the order they were submitted,
+ * borrowing a worker thread only while tasks are pending. Separate lanes run in parallel.
+ */
+public class DispatchLane {
+
+    private static final Logger log = LogManager.getLogger(DispatchLane.class);
+
+    private final String name;
+    private final Consumer<DispatchLane> onIdle;
+
+    // guarded by this
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private boolean draining;
+
+    /**
+     * @param onIdle Called on the worker thread each time the lane runs out of tasks
+     */
+    public DispatchLane(String name, Consumer<DispatchLane> onIdle) {
+        this.name = name;
+        this.onIdle = onIdle;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Whether no task is queued or running
+     */
+    public synchronized boolean isIdle() {
+        return !draining && tasks.isEmpty();
+    }
+
+    /**
+     * Queues {@code task} behind any pending tasks of this lane, scheduling a drain on {@code executor} if the lane was idle
+     *
+     * @throws RejectedExecutionException if the lane was idle and {@code executor} can't run it, {@code task} isn't queued
+     */
+    public synchronized void submit(Runnable task, Executor executor) {
+        if (!draining) {
+            // the drain waits on this lock, so it only starts once the task is queued
+            executor.execute(this::drain);
+            draining = true;
+        }
+        tasks.add(task);
+    }
+
+    private void drain() {
+        while(true) {
+            Runnable task;
+            synchronized(this) {
+                task = tasks.poll();
+                if (task == null) {
+                    draining = false;
+                    break;
+                }
+            }
+
+            try {
+                task.run();
+            }
+            catch(RuntimeException e) {
+                log.error("Unhandled exception in lane {}", name, e);
+            }
+        }
+
+        onIdle.accept(this);
+    }
+
+}
@@ -0,0 +1,148 @@
+package qz.ws;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import qz.common.Metrics;
+import qz.utils.ArgValue;
+import qz.utils.PrefsSearch;
+
+import java.util.Properties;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs websocket requests off of Jetty's threads using a shared worker pool, rejecting
+ * new requests from a connection once it has too many pending.
+ */
+public class MessageDispatcher {
+
+    private static final Logger log = LogManager.getLogger(MessageDispatcher.class);
+
+    private static final long KEEP_ALIVE = 60; // seconds
+
+    private static final AtomicInteger queued = new AtomicInteger(0);
+    private static final Metrics.Timer waitTimer = Metrics.timer("dispatch.waitTime");
+    private static final Metrics.Timer runTimer = Metrics.timer("dispatch.runTime");
+    private static final Metrics.Counter rejected = Metrics.counter("dispatch.rejected");
+
+    private static ExecutorService executor;
+    private static int queueLimit;
+
+    static {
+        Metrics.gauge("dispatch.queued", queued::get);
+    }
+
+    /**
+     * (Re)creates the worker pool using the websocket preferences found in {@code props}
+     */
+    public static synchronized void configure(Properties ... props) {
+        int threads = Math.max(1, PrefsSearch.getInt(ArgValue.WEBSOCKET_WORKER_THREADS, props));
+        boolean virtual = PrefsSearch.getBoolean(ArgValue.WEBSOCKET_WORKER_VIRTUAL, props);
+        queueLimit = Math.max(1, PrefsSearch.getInt(ArgValue.WEBSOCKET_QUEUE_LIMIT, props));
+
+        if (executor != null) {
+            executor.shutdown();
+        }
+
+        executor = virtual? newVirtualExecutor():null;
+        if (executor == null) {
+            executor = newPlatformExecutor(threads);
+            log.info("Processing websocket messages using up to {} threads, {} pending per connection", threads, queueLimit);
+        } else {
+            log.info("Processing websocket messages using virtual threads, {} pending per connection", queueLimit);
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            configure();
+        }
+
+        return executor;
+    }
+
+    /**
+     * Queues {@code task} on behalf of {@code connection}, running independently of all other tasks
+     *
+     * @return {@code false} if the request was rejected and the caller should notify the client
+     */
+    public static boolean dispatch(SocketConnection connection, Runnable task) {
+        return dispatch(connection, null, task);
+    }
+
+    /**
+     * Queues {@code task} on behalf of {@code connection}. Tasks sharing the same {@code lane} are run one
+     * at a time in the order received, while tasks of different lanes run in parallel.
+     *
+     * @param lane Name of the resource this task uses, or {@code null} if it can run in any order
+     * @return {@code false} if the request was rejected and the caller should notify the client
+     */
+    public static boolean dispatch(SocketConnection connection, String lane, Runnable task) {
+        ExecutorService workers = getExecutor();
+
+        if (!connection.reservePending(queueLimit)) {
+            rejected.increment();
+            log.warn("Rejecting request, {} messages are already pending for {}", queueLimit, connection.getCertificate().getCommonName());
+            return false;
+        }
+
+        final long queuedAt = System.nanoTime();
+        queued.incrementAndGet();
+        Runnable tracked = () -> {
+            queued.decrementAndGet();
+            waitTimer.recordSince(queuedAt);
+
+            long startedAt = System.nanoTime();
+            try {
+                task.run();
+            }
+            finally {
+                runTimer.recordSince(startedAt);
+                connection.releasePending();
+            }
+        };
+
+        try {
+            if (lane == null) {
+                workers.execute(tracked);
+            } else {
+                connection.submitToLane(lane, tracked, workers);
+            }
+        }
+        catch(RejectedExecutionException e) {
+            queued.decrementAndGet();
+            connection.releasePending();
+            rejected.increment();
+            log.warn("Rejecting request, worker pool is unavailable", e);
+            return false;
+        }
+
+        return true;
+    }
+
+    private static ExecutorService newPlatformExecutor(int threads) {
+        final AtomicInteger count = new AtomicInteger(0);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread worker = new Thread(runnable, "qz-worker-" + count.incrementAndGet());
+            worker.setDaemon(true);
+            return worker;
+        });
+        pool.allowCoreThreadTimeOut(true);
+
+        return pool;
+    }
+
+    /**
+     * Virtual threads are only available on Java 21+, find them reflectively
+     */
+    private static ExecutorService newVirtualExecutor() {
+        try {
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch(ReflectiveOperationException e) {
+            log.debug("Virtual threads are not supported by this Java runtime");
+            return null;
+        }
+    }
+
+}
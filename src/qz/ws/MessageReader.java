@@ -0,0 +1,276 @@
+package qz.ws;
+
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import org.codehaus.jettison.json.JSONTokener;
+import qz.common.Constants;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Parses a websocket message directly from its {@link Reader} without first copying the entire message into a {@code String}.
+ * <p>
+ * Large values (e.g. base64 print data) are only held once, in their final {@code String} form. The top-level {@code uid}
+ * is captured as it is read, so that errors later in the message can still be reported to the caller.
+ * <p>
+ * Non-JSON messages (such as keep-alive pings) are returned as plain text from {@link #readText()}.
+ */
+public class MessageReader {
+
+    private final Reader reader;
+    private final char[] buffer = new char[Constants.BYTE_BUFFER_SIZE];
+    private int position;
+    private int limit;
+
+    // scratch space reused for every string in the message
+    private final StringBuilder scratch = new StringBuilder();
+
+    private String uid;
+
+    public MessageReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * @return {@code true} if the message is a JSON object, {@code false} if it is plain text or empty
+     */
+    public boolean isJson() throws IOException {
+        return peekClean() == '{';
+    }
+
+    public boolean isEmpty() throws IOException {
+        return peekClean() == -1;
+    }
+
+    /**
+     * Reads the remainder of the message as-is
+     */
+    public String readText() throws IOException {
+        scratch.setLength(0);
+        while(fill()) {
+            scratch.append(buffer, position, limit - position);
+            position = limit;
+        }
+
+        return scratch.toString().trim();
+    }
+
+    /**
+     * Reads the message as a JSON object
+     */
+    public JSONObject readObject() throws IOException, JSONException {
+        if (nextClean() != '{') {
+            throw syntaxError("A JSONObject text must begin with '{'");
+        }
+
+        return readObject(true);
+    }
+
+    /**
+     * @return The top-level {@code uid} of the message, if it has been read
+     */
+    public String getUid() {
+        return uid;
+    }
+
+
+    private JSONObject readObject(boolean topLevel) throws IOException, JSONException {
+        JSONObject object = new JSONObject();
+
+        if (peekClean() == '}') {
+            position++;
+            return object;
+        }
+
+        while(true) {
+            if (nextClean() != '"') {
+                throw syntaxError("Expected a quoted key");
+            }
+            String key = readString();
+
+            if (nextClean() != ':') {
+                throw syntaxError("Expected a ':' after a key");
+            }
+
+            Object value = readValue();
+            if (object.has(key)) {
+                object.accumulate(key, value);
+            } else {
+                object.put(key, value);
+            }
+
+            if (topLevel && value instanceof String && "uid".equals(key)) {
+                uid = (String)value;
+            }
+
+            switch(nextClean()) {
+                case ',':
+                    continue;
+                case '}':
+                    return object;
+                default:
+                    throw syntaxError("Expected a ',' or '}'");
+            }
+        }
+    }
+
+    private JSONArray readArray() throws IOException, JSONException {
+        JSONArray array = new JSONArray();
+
+        if (peekClean() == ']') {
+            position++;
+            return array;
+        }
+
+        while(true) {
+            array.put(readValue());
+
+            switch(nextClean()) {
+                case ',':
+                    continue;
+                case ']':
+                    return array;
+                default:
+                    throw syntaxError("Expected a ',' or ']'");
+            }
+        }
+    }
+
+    private Object readValue() throws IOException, JSONException {
+        int c = nextClean();
+        switch(c) {
+            case '"':
+                return readString();
+            case '{':
+                return readObject(false);
+            case '[':
+                return readArray();
+            case -1:
+                throw syntaxError("Unexpected end of message");
+            default:
+                // numbers, booleans and null are small, let jettison interpret them for consistency
+                scratch.setLength(0);
+                scratch.append((char)c);
+                while((c = peek()) != -1 && c != ',' && c != '}' && c != ']' && !Character.isWhitespace(c)) {
+                    scratch.append((char)c);
+                    position++;
+                }
+
+                return new JSONTokener(scratch.toString()).nextValue();
+        }
+    }
+
+    /**
+     * Reads a string whose opening quote has already been consumed, handling the same escapes as jettison
+     */
+    private String readString() throws IOException, JSONException {
+        scratch.setLength(0);
+
+        while(true) {
+            if (!fill()) {
+                throw syntaxError("Unterminated string");
+            }
+
+            // copy runs of unescaped characters in bulk
+            int start = position;
+            while(position < limit && buffer[position] != '"' && buffer[position] != '\\') {
+                position++;
+            }
+            scratch.append(buffer, start, position - start);
+
+            if (position == limit) {
+                continue;
+            }
+
+            if (buffer[position++] == '"') {
+                return scratch.toString();
+            }
+
+            int escaped = next();
+            switch(escaped) {
+                case 'b':
+                    scratch.append('\b');
+                    break;
+                case 't':
+                    scratch.append('\t');
+                    break;
+                case 'n':
+                    scratch.append('\n');
+                    break;
+                case 'f':
+                    scratch.append('\f');
+                    break;
+                case 'r':
+                    scratch.append('\r');
+                    break;
+                case 'u':
+                    char[] hex = new char[4];
+                    for(int i = 0; i < hex.length; i++) {
+                        int h = next();
+                        if (h == -1) { throw syntaxError("Unterminated string"); }
+                        hex[i] = (char)h;
+                    }
+                    try {
+                        scratch.append((char)Integer.parseInt(new String(hex), 16));
+                    }
+                    catch(NumberFormatException e) {
+                        throw syntaxError("Illegal escape");
+                    }
+                    break;
+                case -1:
+                    throw syntaxError("Unterminated string");
+                default:
+                    scratch.append((char)escaped);
+            }
+        }
+    }
+
+    private boolean fill() throws IOException {
+        if (position < limit) {
+            return true;
+        }
+
+        int read;
+        do {
+            read = reader.read(buffer, 0, buffer.length);
+        }
+        while(read == 0);
+
+        position = 0;
+        limit = Math.max(0, read);
+        return read > 0;
+    }
+
+    private int peek() throws IOException {
+        return fill()? buffer[position]:-1;
+    }
+
+    private int next() throws IOException {
+        return fill()? buffer[position++]:-1;
+    }
+
+    private int peekClean() throws IOException {
+        int c;
+        while((c = peek()) != -1 && Character.isWhitespace(c)) {
+            position++;
+        }
+
+        return c;
+    }
+
+    private int nextClean() throws IOException {
+        int c = peekClean();
+        if (c != -1) {
+            position++;
+        }
+
+        return c;
+    }
+
+    private JSONException syntaxError(String message) {
+        return new JSONException(message);
+    }
+
+}
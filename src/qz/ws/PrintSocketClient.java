@@ -1,13 +1,13 @@
 package qz.ws;
 
 import jssc.SerialPortException;
-import org.apache.commons.io.IOUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
 import org.eclipse.jetty.websocket.api.Session;
 import org.eclipse.jetty.websocket.api.annotations.*;
 import org.eclipse.jetty.websocket.api.exceptions.CloseException;
@@ -33,7 +33,6 @@ import java.nio.channels.ClosedChannelException;
 import java.nio.file.*;
 import java.security.cert.CertificateException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Locale;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeoutException;
@@ -48,9 +47,6 @@ public class PrintSocketClient {
 
     private static final Semaphore dialogAvailable = new Semaphore(1, true);
 
-    //websocket port -> Connection
-    private static final HashMap<Integer,SocketConnection> openConnections = new HashMap<>();
-
     private Server server;
 
     public PrintSocketClient(Server server) {
@@ -63,7 +59,7 @@ public class PrintSocketClient {
         trayManager.displayInfoMessage("Client connected");
 
         //new connections are unknown until they send a proper certificate
-        openConnections.put(((InetSocketAddress)session.getRemoteAddress()).getPort(), new SocketConnection(Certificate.UNKNOWN));
+        ConnectionRegistry.register(session, new SocketConnection(Certificate.UNKNOWN));
     }
 
     @OnWebSocketClose
@@ -71,8 +67,7 @@ public class PrintSocketClient {
         log.info("Connection closed: {} - {}", closeCode, reason);
         trayManager.displayInfoMessage("Client disconnected");
 
-        Integer port = ((InetSocketAddress)session.getRemoteAddress()).getPort();
-        SocketConnection closed = openConnections.remove(port);
+        SocketConnection closed = ConnectionRegistry.remove(session);
         if (closed != null) {
             try {
                 closed.disconnect();
@@ -98,27 +93,31 @@ public class PrintSocketClient {
 
     @OnWebSocketMessage
     public void onMessage(Session session, Reader reader) throws IOException {
-        String message = IOUtils.toString(reader);
+        MessageReader message = new MessageReader(reader);
+        ConnectionRegistry.touch(session);
 
-        if (message == null || message.isEmpty()) {
+        if (message.isEmpty()) {
             sendError(session, null, "Message is empty");
             return;
         }
-        if (Constants.PROBE_REQUEST.equals(message)) {
-            try { session.getRemote().sendString(Constants.PROBE_RESPONSE); } catch(Exception ignore) {}
-            log.warn("Second instance of {} likely detected, asking it to close", Constants.ABOUT_TITLE);
-            return;
+        if (!message.isJson()) {
+            String text = message.readText();
+            if (Constants.PROBE_REQUEST.equals(text)) {
+                try { session.getRemote().sendString(Constants.PROBE_RESPONSE); } catch(Exception ignore) {}
+                log.warn("Second instance of {} likely detected, asking it to close", Constants.ABOUT_TITLE);
+                return;
+            }
+            if ("ping".equals(text)) { return; } //keep-alive call / no need to process
         }
-        if ("ping".equals(message)) { return; } //keep-alive call / no need to process
 
         String UID = null;
         try {
-            JSONObject json = cleanupMessage(new JSONObject(message));
+            //parse straight from the reader to avoid holding an extra copy of large messages
+            JSONObject json = cleanupMessage(message.readObject());
             log.debug("Message: {}", json);
             UID = json.optString("uid");
 
-            Integer connectionPort = ((InetSocketAddress)session.getRemoteAddress()).getPort();
-            SocketConnection connection = openConnections.get(connectionPort);
+            SocketConnection connection = ConnectionRegistry.get(session);
             RequestState request = new RequestState(connection.getCertificate(), json);
 
             //if sent a certificate use that instead for this connection
@@ -129,7 +128,7 @@ public class PrintSocketClient {
 
                     request.markNewConnection(certificate);
 
-                    log.debug("Received new certificate from connection through {}", connectionPort);
+                    log.debug("Received new certificate from connection through {}", session.getRemoteAddress());
                 }
                 catch(CertificateException ignore) {
                     request.markNewConnection(Certificate.UNKNOWN);
@@ -164,9 +163,10 @@ public class PrintSocketClient {
                 }
             }
 
-            //spawn thread to prevent long processes from blocking
+            //hand off to worker pool to prevent long processes from blocking
             final String tUID = UID;
-            new Thread(() -> {
+            boolean accepted = MessageDispatcher.dispatch(connection, findLane(call, json.optJSONObject("params")), () -> {
+                BinaryPayloads.bind(connection);
                 try {
                     processMessage(session, json, connection, request);
                 }
@@ -186,15 +186,41 @@ public class PrintSocketClient {
                     log.error("Problem processing message", e);
                     sendError(session, tUID, e);
                 }
-            }).start();
+                finally {
+                    BinaryPayloads.unbind();
+                }
+            });
+
+            if (!accepted) {
+                sendError(session, UID, "Too many pending requests, try again later");
+            }
         }
         catch(JSONException e) {
             log.error("Bad JSON: {}", e.getMessage());
-            sendError(session, UID, e);
+            sendError(session, UID == null? message.getUid():UID, e);
         }
         catch(Exception e) {
             log.error("Problem processing message", e);
-            sendError(session, UID, e);
+            sendError(session, UID == null? message.getUid():UID, e);
+        }
+    }
+
+    /**
+     * Receives raw data sent ahead of a request, see {@link BinaryPayloads} for the frame layout
+     */
+    @OnWebSocketMessage
+    public void onMessage(Session session, byte[] payload, int offset, int length) {
+        ConnectionRegistry.touch(session);
+
+        SocketConnection connection = ConnectionRegistry.get(session);
+        if (connection == null) { return; }
+
+        try {
+            connection.getBinaryPayloads().receive(payload, offset, length);
+        }
+        catch(IOException e) {
+            // requests referencing this payload will report it missing
+            log.error("Bad binary frame: {}", e.getMessage());
         }
     }
 
@@ -211,12 +237,50 @@ public class PrintSocketClient {
         return msg;
     }
 
+    /**
+     * Determines which resource a call operates on, so that calls against the same port, socket or device are processed in order
+     *
+     * @return Name of the resource, or {@code null} if the call can be processed in any order
+     */
+    private static String findLane(SocketMethod call, JSONObject params) {
+        if (params == null) { return null; }
+
+        switch(call) {
+            case SERIAL_OPEN_PORT:
+            case SERIAL_SEND_DATA:
+            case SERIAL_CLOSE_PORT:
+                return "serial:" + params.optString("port");
+            case SOCKET_OPEN_PORT:
+            case SOCKET_SEND_DATA:
+            case SOCKET_CLOSE_PORT:
+                return String.format("socket:%s:%s", params.optString("host"), params.optInt("port"));
+            case USB_CLAIM_DEVICE:
+            case USB_SEND_DATA:
+            case USB_READ_DATA:
+            case USB_OPEN_STREAM:
+            case USB_CLOSE_STREAM:
+            case USB_RELEASE_DEVICE:
+            case HID_CLAIM_DEVICE:
+            case HID_SEND_DATA:
+            case HID_READ_DATA:
+            case HID_SEND_FEATURE_REPORT:
+            case HID_GET_FEATURE_REPORT:
+            case HID_OPEN_STREAM:
+            case HID_CLOSE_STREAM:
+            case HID_RELEASE_DEVICE:
+                DeviceOptions dOpts = new DeviceOptions(params, DeviceOptions.DeviceMode.parse(call.getCallName()));
+                return String.format("%s:%s:%s", call.getCallName().substring(0, 3), dOpts.getVendorId(), dOpts.getProductId());
+            default:
+                return null;
+        }
+    }
+
     private boolean validSignature(Certificate certificate, JSONObject message) throws JSONException {
         JSONObject copy = new JSONObject(message, new String[] {"call", "params", "timestamp"});
         String signature = message.optString("signature");
         String algorithm = message.optString("signAlgorithm", "SHA1").toUpperCase(Locale.ENGLISH);
 
-        return certificate.isSignatureValid(Certificate.Algorithm.valueOf(algorithm), signature, copy.toString().replaceAll("\\\\/", "/"));
+        return certificate.isSignatureValid(Certificate.Algorithm.valueOf(algorithm), signature, copy.toString().replace("\\/", "/"));
     }
 
     /**
@@ -321,6 +385,10 @@ public class PrintSocketClient {
                 PrintingUtilities.cancelJobs(session, UID, params);
                 sendResult(session, UID, null);
                 break;
+            case PRINTERS_CLEAR_GRAPHICS:
+                PrintingUtilities.clearGraphics(params);
+                sendResult(session, UID, null);
+                break;
             case PRINT:
                 PrintingUtilities.processPrintRequest(session, UID, params);
                 break;
@@ -793,14 +861,17 @@ public class PrintSocketClient {
     }
 
     /**
-     * Raw send method for replies
+     * Raw send method for replies, only one message is sent to a session at a time but sessions don't wait on each other
      *
      * @param session WebSocket session
      * @param reply   JSON Object of reply to web API
      */
-    private static synchronized void send(Session session, JSONObject reply) throws WebSocketException {
+    private static void send(Session session, JSONObject reply) throws WebSocketException {
+        RemoteEndpoint remote = session.getRemote();
         try {
-            session.getRemote().sendString(reply.toString());
+            synchronized(remote) {
+                remote.sendString(reply.toString());
+            }
         }
         catch(IOException e) {
             log.error("Could not send message", e);
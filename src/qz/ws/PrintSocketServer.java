@@ -22,7 +22,13 @@ import org.eclipse.jetty.websocket.servlet.WebSocketUpgradeFilter;
 import qz.App;
 import qz.common.TrayManager;
 import qz.installer.certificate.CertificateManager;
+import qz.printer.action.raw.ConvertedImageCache;
+import qz.printer.action.raw.HostConnectionPool;
+import qz.printer.action.raw.RowBands;
+import qz.printer.status.CupsConnectionPool;
+import qz.printer.status.StatusDispatcher;
 import qz.utils.ArgValue;
+import qz.utils.FileUtilities;
 import qz.utils.PrefsSearch;
 
 import javax.servlet.DispatcherType;
@@ -60,6 +66,20 @@ public class PrintSocketServer {
         httpsOnly = PrefsSearch.getBoolean(ArgValue.SECURITY_WSS_HTTPSONLY, certManager.getProperties());
         sniStrict = PrefsSearch.getBoolean(ArgValue.SECURITY_WSS_SNISTRICT, certManager.getProperties());
         websocketPorts = WebsocketPorts.parseFromProperties();
+        MessageDispatcher.configure(certManager.getProperties());
+        BinaryPayloads.configure(certManager.getProperties());
+        RowBands.setParallelism(PrefsSearch.getInt(ArgValue.PRINTER_RASTER_THREADS, certManager.getProperties()));
+        ConvertedImageCache.configure(PrefsSearch.getInt(ArgValue.PRINTER_IMAGE_CACHE, certManager.getProperties()),
+                                      PrefsSearch.getInt(ArgValue.PRINTER_IMAGE_CACHE_DISK, certManager.getProperties()),
+                                      FileUtilities.USER_DIR.resolve("image-cache"));
+        HostConnectionPool.configure(PrefsSearch.getInt(ArgValue.PRINTER_HOST_CONNECT_TIMEOUT, certManager.getProperties()),
+                                     PrefsSearch.getInt(ArgValue.PRINTER_HOST_WRITE_TIMEOUT, certManager.getProperties()),
+                                     PrefsSearch.getInt(ArgValue.PRINTER_HOST_KEEPALIVE, certManager.getProperties()));
+        StatusDispatcher.configure(PrefsSearch.getInt(ArgValue.PRINTER_STATUS_BUFFER, certManager.getProperties()),
+                                   PrefsSearch.getString(ArgValue.PRINTER_STATUS_OVERFLOW, certManager.getProperties()));
+        CupsConnectionPool.configure(PrefsSearch.getInt(ArgValue.PRINTER_CUPS_CONNECTIONS, certManager.getProperties()),
+                                     PrefsSearch.getInt(ArgValue.PRINTER_CUPS_TIMEOUT, certManager.getProperties()));
+        ConnectionRegistry.startReaping(PrefsSearch.getInt(ArgValue.WEBSOCKET_REAP_IDLE, certManager.getProperties()));
 
         server = findAvailableSecurePort(certManager);
 
@@ -93,6 +113,7 @@ public class PrintSocketServer {
                 JettyWebSocketServletContainerInitializer.configure(context, (ctx, container) -> {
                     container.addMapping("/", (req, resp) -> new PrintSocketClient(server));
                     container.setMaxTextMessageSize(MAX_MESSAGE_SIZE);
+                    container.setMaxBinaryMessageSize(MAX_MESSAGE_SIZE);
                     container.setIdleTimeout(Duration.ofMinutes(5));
                 });
 
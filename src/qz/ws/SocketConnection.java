@@ -10,7 +10,10 @@ import qz.utils.FileWatcher;
 
 import java.io.IOException;
 import java.nio.file.Path;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SocketConnection {
 
@@ -22,15 +25,26 @@ public class SocketConnection {
     private DeviceListener deviceListener;
 
     // serial port -> open SerialIO
-    private final HashMap<String,SerialIO> openSerialPorts = new HashMap<>();
+    private final ConcurrentHashMap<String,SerialIO> openSerialPorts = new ConcurrentHashMap<>();
     // socket 'host:port' -> open ProtocolIO
-    private final HashMap<String,SocketIO> openNetworkSockets = new HashMap<>();
+    private final ConcurrentHashMap<String,SocketIO> openNetworkSockets = new ConcurrentHashMap<>();
 
     // absolute path -> open file listener
-    private final HashMap<Path,FileIO> openFiles = new HashMap<>();
+    private final ConcurrentHashMap<Path,FileIO> openFiles = new ConcurrentHashMap<>();
 
     // DeviceOptions -> open DeviceIO
-    private final HashMap<DeviceOptions,DeviceIO> openDevices = new HashMap<>();
+    private final ConcurrentHashMap<DeviceOptions,DeviceIO> openDevices = new ConcurrentHashMap<>();
+
+    // messages queued or running on behalf of this connection
+    private final AtomicInteger pendingMessages = new AtomicInteger(0);
+
+    // resource name -> ordered dispatch lane
+    private final ConcurrentHashMap<String,DispatchLane> lanes = new ConcurrentHashMap<>();
+
+    // raw payloads sent as binary frames, waiting for the requests that use them
+    private final BinaryPayloads binaryPayloads = new BinaryPayloads();
+
+    private volatile long lastActivity = System.currentTimeMillis();
 
 
     public SocketConnection(Certificate cert) {
@@ -46,6 +60,61 @@ public class SocketConnection {
     }
 
 
+    public void markActive() {
+        lastActivity = System.currentTimeMillis();
+    }
+
+    public long getIdleMillis() {
+        return System.currentTimeMillis() - lastActivity;
+    }
+
+
+    /**
+     * Reserves a slot for a new message, failing if {@code limit} messages are already pending
+     */
+    public boolean reservePending(int limit) {
+        if (pendingMessages.incrementAndGet() > limit) {
+            pendingMessages.decrementAndGet();
+            return false;
+        }
+
+        return true;
+    }
+
+    public void releasePending() {
+        pendingMessages.decrementAndGet();
+    }
+
+    public int getPendingCount() {
+        return pendingMessages.get();
+    }
+
+    public BinaryPayloads getBinaryPayloads() {
+        return binaryPayloads;
+    }
+
+    /**
+     * Queues {@code task} on the lane used to order calls made against the resource {@code name}, creating it if needed.
+     * Lanes are discarded again once they run out of tasks.
+     *
+     * @throws RejectedExecutionException if the lane was idle and {@code executor} can't run it
+     */
+    public void submitToLane(String name, Runnable task, Executor executor) {
+        lanes.compute(name, (key, lane) -> {
+            if (lane == null) {
+                lane = new DispatchLane(key, this::removeLane);
+            }
+            lane.submit(task, executor);
+            return lane;
+        });
+    }
+
+    private void removeLane(DispatchLane lane) {
+        // a task submitted meanwhile keeps the lane, so tasks for a resource never run on two lanes at once
+        lanes.computeIfPresent(lane.getName(), (key, current) -> current == lane && lane.isIdle()? null:current);
+    }
+
+
     public void addSerialPort(String port, SerialIO io) {
         openSerialPorts.put(port, io);
     }
@@ -128,6 +197,14 @@ public class SocketConnection {
         }
     }
 
+    /**
+     * @return Whether any port, socket, device or file is open, or any device, file or printer status is being listened to
+     */
+    public boolean hasOpenChannels() {
+        return !openSerialPorts.isEmpty() || !openNetworkSockets.isEmpty() || !openFiles.isEmpty() || !openDevices.isEmpty()
+                || isDeviceListening() || StatusMonitor.isListening(this);
+    }
+
     /**
      * Explicitly closes all open serial and usb connections setup through this object
      */
@@ -149,6 +226,7 @@ public class SocketConnection {
 
         removeAllFileListeners();
         stopDeviceListening();
+        binaryPayloads.release();
         StatusMonitor.stopListening(this);
     }
 
@@ -58,8 +58,12 @@ public class StreamEvent {
     }
 
     public String toJSON() throws JSONException {
+        return toJSONObject().toString();
+    }
+
+    public JSONObject toJSONObject() throws JSONException {
         eventData.put("type", getEventType());
-        return eventData.toString();
+        return eventData;
     }
 
 }
@@ -0,0 +1,140 @@
+package qz.common;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares {@link ByteArrayBuilder} against its previous boxed {@code List<Byte>} storage for the ways it is used:
+ * appending a large raw job in small commands, reading it back with {@code getByteArray()}, and consuming a
+ * serial buffer from the front with {@code clearRange()}.
+ * <p>
+ * Usage: {@code ByteArrayBuilderBenchmark [job size in MB] [iterations]}
+ */
+public class ByteArrayBuilderBenchmark {
+
+    private static final Logger log = LogManager.getLogger(ByteArrayBuilderBenchmark.class);
+
+    public static void main(String... args) {
+        int jobSize = (args.length > 0? Integer.parseInt(args[0]):20) * 1024 * 1024;
+        int iterations = args.length > 1? Integer.parseInt(args[1]):5;
+
+        byte[] command = new byte[64];
+        new Random(0).nextBytes(command);
+
+        // check both produce the same contents before timing
+        ByteArrayBuilder current = new ByteArrayBuilder();
+        LegacyByteArrayBuilder legacy = new LegacyByteArrayBuilder();
+        for(int i = 0; i < 1000; i++) {
+            current.append(command);
+            legacy.append(command);
+            if (i % 7 == 0) {
+                current.clearRange(i, i + 13);
+                legacy.clearRange(i, i + 13);
+            }
+        }
+        if (!Arrays.equals(current.getByteArray(), legacy.getByteArray())) {
+            throw new IllegalStateException("Contents differ from legacy builder");
+        }
+
+        long usedBefore = usedMemory();
+        long start = System.nanoTime();
+        for(int n = 0; n < iterations; n++) {
+            legacy = new LegacyByteArrayBuilder();
+            for(int i = 0; i < jobSize / command.length; i++) {
+                legacy.append(command);
+            }
+        }
+        long legacyAppend = System.nanoTime() - start;
+        long legacyHeap = usedMemory() - usedBefore;
+
+        start = System.nanoTime();
+        for(int n = 0; n < iterations; n++) {
+            legacy.getByteArray();
+        }
+        long legacyRead = System.nanoTime() - start;
+        legacy = null;
+
+        usedBefore = usedMemory();
+        start = System.nanoTime();
+        for(int n = 0; n < iterations; n++) {
+            current = new ByteArrayBuilder();
+            for(int i = 0; i < jobSize / command.length; i++) {
+                current.append(command);
+            }
+        }
+        long currentAppend = System.nanoTime() - start;
+        long currentHeap = usedMemory() - usedBefore;
+
+        start = System.nanoTime();
+        for(int n = 0; n < iterations; n++) {
+            current.getByteArray();
+        }
+        long currentRead = System.nanoTime() - start;
+        current = null;
+
+        log.info("append {} MB: legacy {} ms, current {} ms", jobSize / 1024 / 1024, legacyAppend / 1000000 / iterations, currentAppend / 1000000 / iterations);
+        log.info("getByteArray {} MB: legacy {} ms, current {} ms", jobSize / 1024 / 1024, legacyRead / 1000000 / iterations, currentRead / 1000000 / iterations);
+        log.info("retained heap: legacy ~{} MB, current ~{} MB", legacyHeap / 1024 / 1024, currentHeap / 1024 / 1024);
+
+        // serial reads: small chunks arrive, complete messages are removed from the front
+        legacy = new LegacyByteArrayBuilder();
+        start = System.nanoTime();
+        for(int i = 0; i < 200000; i++) {
+            legacy.append(command);
+            legacy.clearRange(0, command.length / 2);
+            if (legacy.getLength() > 4096) { legacy.clear(); }
+        }
+        long legacyClear = System.nanoTime() - start;
+
+        current = new ByteArrayBuilder();
+        start = System.nanoTime();
+        for(int i = 0; i < 200000; i++) {
+            current.append(command);
+            current.clearRange(0, command.length / 2);
+            if (current.getLength() > 4096) { current.clear(); }
+        }
+        long currentClear = System.nanoTime() - start;
+
+        log.info("append/clearRange x200000: legacy {} ms, current {} ms", legacyClear / 1000000, currentClear / 1000000);
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for(int i = 0; i < 3; i++) { System.gc(); }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /** The builder as it was, storing every byte boxed in a list */
+    private static class LegacyByteArrayBuilder {
+        private List<Byte> buffer = new ArrayList<>(16);
+
+        void append(byte[] bytes) {
+            for(byte b : bytes) {
+                buffer.add(b);
+            }
+        }
+
+        void clearRange(int startIndex, int endIndex) {
+            buffer.subList(startIndex, endIndex).clear();
+        }
+
+        void clear() {
+            buffer.clear();
+        }
+
+        int getLength() {
+            return buffer.size();
+        }
+
+        byte[] getByteArray() {
+            return ArrayUtils.toPrimitive(buffer.toArray(new Byte[buffer.size()]));
+        }
+    }
+
+}
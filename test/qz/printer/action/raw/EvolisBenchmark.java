@@ -0,0 +1,188 @@
+package qz.printer.action.raw;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codehaus.jettison.json.JSONObject;
+import qz.common.ByteArrayBuilder;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Compares the Evolis YMCKO ribbon encoding in {@link ImageWrapper} against the previous
+ * {@code ArrayList<float[]>} / {@code ArrayList<Byte>} pipeline, checking the output matches for each precision
+ * and timing both for a full bleed card.
+ * <p>
+ * Usage: {@code EvolisBenchmark [iterations] [threads]}
+ */
+public class EvolisBenchmark {
+
+    private static final Logger log = LogManager.getLogger(EvolisBenchmark.class);
+
+    private static final int WARMUP = 5;
+
+    public static void main(String... args) throws Exception {
+        int iterations = args.length > 0? Integer.parseInt(args[0]):20;
+        int threads = args.length > 1? Integer.parseInt(args[1]):Math.max(2, Runtime.getRuntime().availableProcessors());
+        RowBands.setParallelism(threads);
+
+        BufferedImage card = createCard(1016, 648);
+        BufferedImage odd = createCard(333, 211); // rows that don't end on a byte
+        BufferedImage[] images = {card, odd, convert(card, BufferedImage.TYPE_4BYTE_ABGR), convert(odd, BufferedImage.TYPE_3BYTE_BGR),
+                                  convert(card, BufferedImage.TYPE_USHORT_565_RGB)}; // read through getRGB
+
+        for(int precision : new int[] {2, 32, 64, 128, 256}) {
+            for(BufferedImage image : images) {
+                JSONObject opt = new JSONObject().put("precision", precision).put("overlay", true);
+                byte[] expected = legacyEvolis(image, precision, true);
+                byte[] actual = new ImageWrapper(image, LanguageType.EVOLIS).getImageCommand(opt);
+                if (!Arrays.equals(expected, actual)) {
+                    throw new IllegalStateException("Output differs from legacy conversion at precision " + precision + " for " + image.getWidth() + "x" + image.getHeight() + " of type " + image.getType());
+                }
+            }
+        }
+
+        JSONObject opt = new JSONObject().put("precision", 128).put("overlay", true);
+        for(int i = 0; i < WARMUP; i++) {
+            legacyEvolis(card, 128, true);
+            new ImageWrapper(card, LanguageType.EVOLIS).getImageCommand(opt);
+        }
+
+        long start = System.nanoTime();
+        for(int i = 0; i < iterations; i++) {
+            legacyEvolis(card, 128, true);
+        }
+        long legacy = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for(int i = 0; i < iterations; i++) {
+            new ImageWrapper(card, LanguageType.EVOLIS).getImageCommand(opt);
+        }
+        long current = System.nanoTime() - start;
+
+        log.info("Card {}x{} YMCKO: legacy {} ms/card, current {} ms/card with {} threads ({}x)", card.getWidth(), card.getHeight(),
+                 String.format("%.3f", legacy / 1e6 / iterations), String.format("%.3f", current / 1e6 / iterations), threads,
+                 String.format("%.1f", (double)legacy / current));
+    }
+
+    private static BufferedImage createCard(int width, int height) {
+        BufferedImage card = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = card.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, new Color(30, 90, 200), width, height, new Color(250, 220, 40)));
+        g.fillRect(0, 0, width, height);
+        g.setColor(Color.WHITE);
+        g.fillOval(width / 10, height / 6, width / 4, height * 2 / 3);
+        g.setColor(Color.BLACK);
+        g.setFont(new Font(Font.SANS_SERIF, Font.BOLD, Math.max(8, height / 12)));
+        g.drawString("EMPLOYEE 0042", width * 2 / 5, height / 2);
+        g.dispose();
+
+        return card;
+    }
+
+    private static BufferedImage convert(BufferedImage image, int type) {
+        BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(), type);
+        Graphics2D g = converted.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+
+        return converted;
+    }
+
+    /** The conversion as it was done before encoding panels directly */
+    private static byte[] legacyEvolis(BufferedImage image, int precision, boolean overlay) throws Exception {
+        ByteArrayBuilder buffer = new ByteArrayBuilder();
+        Charset charset = Charset.defaultCharset();
+        int w = image.getWidth(), h = image.getHeight();
+
+        int[] pixels = image.getRGB(0, 0, w, h, null, 0, w);
+        float[] cyan = new float[pixels.length];
+        float[] yellow = new float[pixels.length];
+        float[] magenta = new float[pixels.length];
+        float[] black = new float[pixels.length];
+        for(int i = 0; i < pixels.length; i++) {
+            float rgb[] = new Color(pixels[i]).getRGBColorComponents(null);
+            if (rgb[0] == 0.0f && rgb[1] == 0.0f && rgb[2] == 0.0f) {
+                black[i] = 1.0f;
+            } else {
+                cyan[i] = 1.0f - rgb[0];
+                magenta[i] = 1.0f - rgb[1];
+                yellow[i] = 1.0f - rgb[2];
+            }
+        }
+
+        ArrayList<float[]> panels = new ArrayList<>();
+        panels.add(yellow);
+        panels.add(magenta);
+        panels.add(cyan);
+        panels.add(black);
+        if (overlay) {
+            float[] coat = new float[pixels.length];
+            Arrays.fill(coat, 1.0f);
+            panels.add(coat);
+        }
+
+        char[] ribbons = {'y', 'm', 'c', 'k', 'o'};
+        for(int p = 0; p < panels.size(); p++) {
+            int panelPrecision = p < 3? precision:2;
+            buffer.append("\u001BDb;" + ribbons[p] + ";" + panelPrecision + ";", charset);
+            buffer.append(compactBits(panelPrecision, panels.get(p)));
+            buffer.append(new byte[] {0x0D});
+        }
+
+        return buffer.getByteArray();
+    }
+
+    private static ArrayList<Byte> compactBits(int precision, float[] colorData) {
+        ArrayList<Byte> bytes = new ArrayList<>();
+
+        int bits = precisionBits(precision);
+        int empty = 8 - bits;
+
+        for(int i = 0; i < colorData.length; i++) {
+            byte b = 0;
+            int captured = 0;
+
+            b |= byteValue(colorData[i], precision) << empty;
+            captured += 8 - empty;
+
+            while(captured < 8 && (i + 1) < colorData.length) {
+                int excess = bits - empty;
+
+                if (excess > 0) {
+                    b |= byteValue(colorData[i + 1], precision) >> excess;
+                } else {
+                    b |= byteValue(colorData[i + 1], precision) << Math.abs(excess);
+                }
+                captured += bits - Math.max(0, excess);
+                if (captured < 8 && excess <= 0) { i++; }
+
+                empty = 8 - excess;
+                if (empty > 8) { empty -= 8; }
+            }
+
+            bytes.add(b);
+        }
+
+        return bytes;
+    }
+
+    private static int precisionBits(int precision) {
+        precision--;
+        int ones = 0;
+        while(precision > 0) {
+            if (precision % 2 != 0) { ones++; }
+            precision /= 2;
+        }
+
+        return ones;
+    }
+
+    private static byte byteValue(float value, int precision) {
+        return (byte)(value * (precision - 1));
+    }
+
+}
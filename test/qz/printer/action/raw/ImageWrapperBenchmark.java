@@ -0,0 +1,277 @@
+package qz.printer.action.raw;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codehaus.jettison.json.JSONObject;
+import qz.common.ByteArrayBuilder;
+import qz.utils.ByteUtilities;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the monochrome conversion in {@link ImageWrapper} against the previous
+ * per-pixel {@code Color} / {@code boolean[]} / {@code int[]} pipeline, checking the output matches
+ * and timing both for a typical shipping label.  Then compares serial and parallel ({@link RowBands})
+ * conversion of a long page, times each {@link Dithering} method on a gradient, and checks every
+ * {@link EscPosImageMode} prints a receipt the same while comparing their sizes.
+ * <p>
+ * Usage: {@code ImageWrapperBenchmark [dpi] [iterations] [threads]}, defaults to a 4x6 inch label at 203 dpi.
+ */
+public class ImageWrapperBenchmark {
+
+    private static final Logger log = LogManager.getLogger(ImageWrapperBenchmark.class);
+
+    private static final int WARMUP = 20;
+
+    public static void main(String... args) throws Exception {
+        int dpi = args.length > 0? Integer.parseInt(args[0]):203;
+        int iterations = args.length > 1? Integer.parseInt(args[1]):100;
+        int threads = args.length > 2? Integer.parseInt(args[2]):Math.max(2, Runtime.getRuntime().availableProcessors());
+
+        for(int type : new int[] {BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_BYTE_GRAY}) {
+            BufferedImage label = createLabel(4 * dpi / 8 * 8, 6 * dpi, type); // ZPL pads widths to a multiple of 8
+
+            byte[] expected = legacyZpl(label);
+            byte[] actual = new ImageWrapper(label, LanguageType.ZPL).getImageCommand(new JSONObject());
+            if (!Arrays.equals(expected, actual)) {
+                throw new IllegalStateException("Output differs from legacy conversion for image type " + type);
+            }
+
+            for(int i = 0; i < WARMUP; i++) {
+                legacyZpl(label);
+                new ImageWrapper(label, LanguageType.ZPL).getImageCommand(new JSONObject());
+            }
+
+            long start = System.nanoTime();
+            for(int i = 0; i < iterations; i++) {
+                legacyZpl(label);
+            }
+            long legacy = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for(int i = 0; i < iterations; i++) {
+                new ImageWrapper(label, LanguageType.ZPL).getImageCommand(new JSONObject());
+            }
+            long current = System.nanoTime() - start;
+
+            log.info("Type {} {}x{}: legacy {} ms/image, current {} ms/image ({}x)", type, label.getWidth(), label.getHeight(),
+                     String.format("%.3f", legacy / 1e6 / iterations), String.format("%.3f", current / 1e6 / iterations),
+                     String.format("%.1f", (double)legacy / current));
+        }
+
+        BufferedImage page = createLabel(8 * dpi / 8 * 8, 24 * dpi, BufferedImage.TYPE_INT_ARGB);
+        RowBands.setParallelism(1);
+        byte[] serial = new ImageWrapper(page, LanguageType.ZPL).getImageCommand(new JSONObject());
+        double serialMs = timeConversion(page, iterations / 4 + 1);
+
+        RowBands.setParallelism(threads);
+        byte[] parallel = new ImageWrapper(page, LanguageType.ZPL).getImageCommand(new JSONObject());
+        double parallelMs = timeConversion(page, iterations / 4 + 1);
+
+        if (!Arrays.equals(serial, parallel)) {
+            throw new IllegalStateException("Parallel output differs from serial output");
+        }
+
+        log.info("Page {}x{}: serial {} ms/image, {} threads {} ms/image ({}x)", page.getWidth(), page.getHeight(),
+                 String.format("%.3f", serialMs), threads, String.format("%.3f", parallelMs),
+                 String.format("%.1f", serialMs / parallelMs));
+
+        // a left to right gradient should come out with roughly as many black dots as its average darkness
+        BufferedImage gradient = new BufferedImage(page.getWidth(), page.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = gradient.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, Color.BLACK, gradient.getWidth(), 0, Color.WHITE));
+        g.fillRect(0, 0, gradient.getWidth(), gradient.getHeight());
+        g.dispose();
+
+        for(Dithering dithering : Dithering.values()) {
+            long start = System.nanoTime();
+            for(int i = 0; i < iterations / 4 + 1; i++) {
+                ImageWrapper wrapper = new ImageWrapper(gradient, LanguageType.ZPL);
+                wrapper.setDithering(dithering);
+                wrapper.getImageCommand(new JSONObject());
+            }
+            double ms = (System.nanoTime() - start) / 1e6 / (iterations / 4 + 1);
+
+            ImageWrapper wrapper = new ImageWrapper(gradient, LanguageType.EPL);
+            wrapper.setDithering(dithering);
+            byte[] epl = wrapper.getImageCommand(new JSONObject());
+            long white = 0; // EPL uses 1's for white
+            for(byte b : epl) { white += Integer.bitCount(b & 0xFF); }
+            double black = 1 - (double)white / (gradient.getWidth() * gradient.getHeight());
+
+            log.info("Dithering {}: {} ms/image, {}% black", dithering, String.format("%.3f", ms), String.format("%.1f", black * 100));
+            if (dithering != Dithering.NONE && Math.abs(black - 0.5) > 0.05) {
+                throw new IllegalStateException(dithering + " did not preserve the average darkness of a gradient");
+            }
+        }
+
+        // a long receipt with gaps, an odd width to exercise rows that don't start on a byte
+        BufferedImage receipt = createLabel(570, 12 * dpi, BufferedImage.TYPE_INT_RGB);
+        g = receipt.createGraphics();
+        g.setColor(Color.WHITE);
+        for(int y = dpi; y < receipt.getHeight(); y += 2 * dpi) {
+            g.fillRect(0, y, receipt.getWidth(), dpi / 2);
+        }
+        g.dispose();
+
+        boolean[][] columns = null;
+        for(EscPosImageMode mode : EscPosImageMode.values()) {
+            for(String compression : new String[] {"none", "rle"}) {
+                if (mode == EscPosImageMode.COLUMN && !compression.equals("none")) { continue; }
+
+                JSONObject opt = new JSONObject().put("imageMode", mode.name()).put("compression", compression);
+                byte[] escp = new ImageWrapper(receipt, LanguageType.ESCP).getImageCommand(opt);
+                boolean[][] printed = printEscPos(escp, receipt.getWidth(), receipt.getHeight());
+                if (columns == null) {
+                    columns = printed;
+                } else if (!Arrays.deepEquals(columns, printed)) {
+                    throw new IllegalStateException(mode + " with compression " + compression + " prints differently than column slices");
+                }
+
+                long start = System.nanoTime();
+                for(int i = 0; i < iterations / 4 + 1; i++) {
+                    new ImageWrapper(receipt, LanguageType.ESCP).getImageCommand(opt);
+                }
+                double ms = (System.nanoTime() - start) / 1e6 / (iterations / 4 + 1);
+
+                log.info("ESC/POS {} compression {}: {} bytes, {} ms/image", mode, compression, escp.length, String.format("%.3f", ms));
+            }
+        }
+    }
+
+    /**
+     * Plays back the ESC/POS image commands produced by {@link ImageWrapper}, returning the dots they would print
+     */
+    private static boolean[][] printEscPos(byte[] escp, int width, int height) {
+        boolean[][] dots = new boolean[height][width];
+        int y = 0;
+        int storedWidth = 0, storedRows = 0, storedAt = 0;
+
+        int i = 0;
+        while(i < escp.length) {
+            if (escp[i] == 0x1B && escp[i + 1] == 0x2A) {
+                int bytes = (escp[i + 2] & 0xFF) >= 32? 3:1;
+                int w = (escp[i + 3] & 0xFF) + (escp[i + 4] & 0xFF) * 256;
+                i += 5;
+                for(int x = 0; x < w; x++) {
+                    for(int bit = 0; bit < bytes * 8; bit++) {
+                        if ((escp[i + x * bytes + bit / 8] & (0x80 >> bit % 8)) != 0) {
+                            dots[y + bit][x] = true;
+                        }
+                    }
+                }
+                i += w * bytes;
+            } else if (escp[i] == 0x1B && escp[i + 1] == 0x4A) {
+                y += escp[i + 2] & 0xFF;
+                i += 3;
+            } else if (escp[i] == 0x1D && escp[i + 1] == 0x76) {
+                int perRow = (escp[i + 4] & 0xFF) + (escp[i + 5] & 0xFF) * 256;
+                int rows = (escp[i + 6] & 0xFF) + (escp[i + 7] & 0xFF) * 256;
+                i += 8;
+                setRaster(dots, escp, i, y, perRow, rows);
+                i += perRow * rows;
+                y += rows;
+            } else if (escp[i] == 0x1D && (escp[i + 1] == 0x28 || escp[i + 1] == 0x38) && escp[i + 2] == 0x4C) {
+                int start = i + (escp[i + 1] == 0x28? 5:7);
+                if (escp[start + 1] == 112) {
+                    storedWidth = (escp[start + 6] & 0xFF) + (escp[start + 7] & 0xFF) * 256;
+                    storedRows = (escp[start + 8] & 0xFF) + (escp[start + 9] & 0xFF) * 256;
+                    storedAt = start + 10;
+                    i = storedAt + storedWidth / 8 * storedRows;
+                } else {
+                    setRaster(dots, escp, storedAt, y, storedWidth / 8, storedRows);
+                    y += storedRows;
+                    i = start + 2;
+                }
+            } else {
+                throw new IllegalStateException("Unexpected ESC/POS byte at " + i);
+            }
+        }
+
+        return dots;
+    }
+
+    private static void setRaster(boolean[][] dots, byte[] escp, int offset, int y, int perRow, int rows) {
+        for(int r = 0; r < rows; r++) {
+            for(int x = 0; x < perRow * 8; x++) {
+                if ((escp[offset + r * perRow + x / 8] & (0x80 >> x % 8)) != 0) {
+                    dots[y + r][x] = true;
+                }
+            }
+        }
+    }
+
+    private static double timeConversion(BufferedImage image, int iterations) throws Exception {
+        for(int i = 0; i < WARMUP; i++) {
+            new ImageWrapper(image, LanguageType.ZPL).getImageCommand(new JSONObject());
+        }
+
+        long start = System.nanoTime();
+        for(int i = 0; i < iterations; i++) {
+            new ImageWrapper(image, LanguageType.ZPL).getImageCommand(new JSONObject());
+        }
+
+        return (System.nanoTime() - start) / 1e6 / iterations;
+    }
+
+    static BufferedImage createLabel(int width, int height, int type) {
+        BufferedImage label = new BufferedImage(width, height, type);
+        Graphics2D g = label.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+
+        // text, barcode-like bars and some gray noise to exercise the threshold
+        Random random = new Random(width);
+        g.setColor(Color.BLACK);
+        g.setFont(new Font(Font.SANS_SERIF, Font.BOLD, height / 30));
+        for(int y = height / 20; y < height / 2; y += height / 15) {
+            g.drawString("SHIP TO 1234 EXAMPLE STREET", width / 20, y);
+        }
+        for(int x = width / 10; x < width * 9 / 10; x += 2 + random.nextInt(6)) {
+            g.fillRect(x, height / 2, 1 + random.nextInt(3), height / 4);
+        }
+        for(int i = 0; i < width * height / 50; i++) {
+            int v = random.nextInt(256);
+            g.setColor(new Color(v, v, v));
+            g.fillRect(random.nextInt(width), height * 3 / 4 + random.nextInt(height / 4), 1, 1);
+        }
+        g.dispose();
+
+        return label;
+    }
+
+    /** The conversion as it was done before packing bits directly */
+    private static byte[] legacyZpl(BufferedImage bi) throws Exception {
+        int h = bi.getHeight();
+        int w = bi.getWidth();
+        int[] rgbPixels = bi.getRGB(0, 0, w, h, null, 0, w);
+
+        boolean[] pixels = new boolean[rgbPixels.length];
+        for(int i = 0; i < rgbPixels.length; i++) {
+            Color color = new Color(rgbPixels[i], true);
+            if (color.getAlpha() < 127) {
+                pixels[i] = false;
+            } else {
+                int luma = ((color.getRed() * 299) + (color.getGreen() * 587) + (color.getBlue() * 114)) / 1000;
+                pixels[i] = luma < 127;
+            }
+        }
+
+        int[] ints = new int[pixels.length / 8];
+        for(int i = 0; i < ints.length; i++) {
+            for(int k = 0; k < 8; k++) {
+                ints[i] += (pixels[8 * i + k]? 1:0) << 7 - k;
+            }
+        }
+
+        String hex = ByteUtilities.getHexString(ints);
+        int byteLen = hex.length() / 2;
+        StringBuilder zpl = new StringBuilder("^GFA,").append(byteLen).append(",").append(byteLen).append(",").append(byteLen / h).append(",").append(hex);
+        return new ByteArrayBuilder().append(zpl, Charset.defaultCharset()).getByteArray();
+    }
+
+}
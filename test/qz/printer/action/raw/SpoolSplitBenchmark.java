@@ -0,0 +1,118 @@
+package qz.printer.action.raw;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import qz.common.ByteArrayBuilder;
+import qz.utils.ByteUtilities;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares splitting a spooled job into pages with {@link SpooledCommands#split(byte[], int)} against the previous
+ * {@link ByteUtilities#splitByteArray(byte[], byte[], int)}, checking both give the same pages (in memory and
+ * buffered to a file) and timing each for a job of many labels sent several times.
+ * <p>
+ * Usage: {@code SpoolSplitBenchmark [labels] [copies]}
+ */
+public class SpoolSplitBenchmark {
+
+    private static final Logger log = LogManager.getLogger(SpoolSplitBenchmark.class);
+
+    private static final byte[] SPOOL_END = "^XZ".getBytes(StandardCharsets.US_ASCII);
+    private static final int WARMUP = 5;
+
+    public static void main(String... args) throws Exception {
+        int labels = args.length > 0? Integer.parseInt(args[0]):500;
+        int copies = args.length > 1? Integer.parseInt(args[1]):100;
+
+        byte[] job = createJob(labels);
+        for(int spoolSize : new int[] {1, 3, 7, labels + 1}) {
+            List<ByteArrayBuilder> expected = ByteUtilities.splitByteArray(job, SPOOL_END, spoolSize);
+
+            SpooledCommands memory = new SpooledCommands(-1).append(job);
+            try(SpooledCommands buffered = new SpooledCommands(1024).append(job)) {
+                check(expected, memory.split(SPOOL_END, spoolSize), "in memory", spoolSize);
+                check(expected, buffered.split(SPOOL_END, spoolSize), "buffered", spoolSize);
+            }
+        }
+
+        OutputStream sink = new OutputStream() {
+            @Override
+            public void write(int b) {}
+
+            @Override
+            public void write(byte[] b, int off, int len) {}
+        };
+
+        for(int i = 0; i < WARMUP; i++) {
+            legacy(job, 1, copies, sink);
+            current(job, 1, copies, sink);
+        }
+
+        long start = System.nanoTime();
+        legacy(job, 1, copies, sink);
+        long legacy = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        current(job, 1, copies, sink);
+        long current = System.nanoTime() - start;
+
+        log.info("{} labels ({} bytes) x {} copies: legacy {} ms, current {} ms ({}x)", labels, job.length, copies,
+                 String.format("%.3f", legacy / 1e6), String.format("%.3f", current / 1e6), String.format("%.1f", (double)legacy / current));
+    }
+
+    private static void check(List<ByteArrayBuilder> expected, List<SpooledCommands> actual, String type, int spoolSize) throws IOException {
+        if (expected.size() != actual.size()) {
+            throw new IllegalStateException("Split " + type + " into " + actual.size() + " pages instead of " + expected.size() + " for spool size " + spoolSize);
+        }
+        for(int i = 0; i < expected.size(); i++) {
+            byte[] page = expected.get(i).getByteArray();
+            ByteArrayOutputStream written = new ByteArrayOutputStream();
+            actual.get(i).writeTo(written);
+
+            if (!Arrays.equals(page, written.toByteArray()) || !Arrays.equals(page, actual.get(i).getByteArray())) {
+                throw new IllegalStateException("Page " + i + " split " + type + " differs for spool size " + spoolSize);
+            }
+        }
+    }
+
+    /** Copies and pages as they were sent before pages became ranges of the job */
+    private static void legacy(byte[] job, int spoolSize, int copies, OutputStream out) throws IOException {
+        List<ByteArrayBuilder> pages = ByteUtilities.splitByteArray(job, SPOOL_END, spoolSize);
+        for(int i = 0; i < copies; i++) {
+            for(ByteArrayBuilder page : pages) {
+                out.write(page.getByteArray());
+            }
+        }
+    }
+
+    private static void current(byte[] job, int spoolSize, int copies, OutputStream out) throws IOException {
+        List<SpooledCommands> pages = new SpooledCommands(-1).append(job).split(SPOOL_END, spoolSize);
+        for(int i = 0; i < copies; i++) {
+            for(SpooledCommands page : pages) {
+                page.writeTo(out);
+            }
+        }
+    }
+
+    private static byte[] createJob(int labels) throws IOException {
+        Random random = new Random(42);
+        ByteArrayBuilder job = new ByteArrayBuilder();
+        for(int i = 0; i < labels; i++) {
+            job.append("^XA^FO50,50^A0N,40,40^FDLabel " + i + "^FS^FO50,120^GFA,", StandardCharsets.US_ASCII);
+            byte[] graphic = new byte[200 + random.nextInt(400)];
+            random.nextBytes(graphic);
+            job.append(ByteUtilities.bytesToHex(graphic), StandardCharsets.US_ASCII);
+            job.append("^FS^XZ\n", StandardCharsets.US_ASCII);
+        }
+
+        return job.getByteArray();
+    }
+
+}
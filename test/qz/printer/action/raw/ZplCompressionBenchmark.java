@@ -0,0 +1,200 @@
+package qz.printer.action.raw;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codehaus.jettison.json.JSONObject;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+import java.util.zip.Inflater;
+
+/**
+ * Compares the size and encoding time of each {@link ZplCompression} for a few typical images, decoding every
+ * result again to check it matches the uncompressed graphic.
+ * <p>
+ * Usage: {@code ZplCompressionBenchmark [dpi] [iterations]}, defaults to 4x6 inch images at 203 dpi.
+ */
+public class ZplCompressionBenchmark {
+
+    private static final Logger log = LogManager.getLogger(ZplCompressionBenchmark.class);
+
+    public static void main(String... args) throws Exception {
+        int dpi = args.length > 0? Integer.parseInt(args[0]):203;
+        int iterations = args.length > 1? Integer.parseInt(args[1]):20;
+        int width = 4 * dpi / 8 * 8;
+        int height = 6 * dpi;
+
+        benchmark("label", ImageWrapperBenchmark.createLabel(width, height, BufferedImage.TYPE_INT_RGB), Dithering.NONE, iterations);
+        benchmark("barcodes", createBarcodes(width, height), Dithering.NONE, iterations);
+        benchmark("gradient", createGradient(width, height), Dithering.FLOYD_STEINBERG, iterations);
+        benchmark("blank", createBlank(width, height), Dithering.NONE, iterations);
+    }
+
+    private static void benchmark(String name, BufferedImage image, Dithering dithering, int iterations) throws Exception {
+        ImageWrapper iw = new ImageWrapper(image, LanguageType.ZPL);
+        iw.setDithering(dithering);
+        byte[] expected = decodeHex(graphicData(iw, ZplCompression.NONE));
+        int perRow = image.getWidth() / 8;
+
+        for(ZplCompression compression : ZplCompression.values()) {
+            String data = graphicData(iw, compression);
+            byte[] decoded;
+            if (data.startsWith(":Z64:")) {
+                decoded = decodeZ64(data);
+            } else if (compression == ZplCompression.NONE) {
+                decoded = decodeHex(data);
+            } else {
+                decoded = decodeAcs(data, perRow, image.getHeight());
+            }
+            if (!Arrays.equals(expected, decoded)) {
+                throw new IllegalStateException(name + " does not decode back to the same graphic with " + compression);
+            }
+
+            long start = System.nanoTime();
+            for(int i = 0; i < iterations; i++) {
+                graphicData(iw, compression);
+            }
+            double ms = (System.nanoTime() - start) / 1e6 / iterations;
+
+            log.info("{} {}: {} bytes ({}% of hex) in {} ms", name, compression, data.length(),
+                     String.format("%.1f", data.length() * 100.0 / (expected.length * 2)), String.format("%.2f", ms));
+        }
+    }
+
+    /** Everything after the {@code ^GFA,total,total,perRow,} header */
+    private static String graphicData(ImageWrapper iw, ZplCompression compression) throws Exception {
+        JSONObject opt = new JSONObject();
+        opt.put("compression", compression.name());
+        String command = new String(iw.getImageCommand(opt), StandardCharsets.US_ASCII);
+
+        int start = 0;
+        for(int i = 0; i < 4; i++) {
+            start = command.indexOf(',', start) + 1;
+        }
+        return command.substring(start);
+    }
+
+    private static byte[] decodeHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for(int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte)Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static byte[] decodeAcs(String acs, int perRow, int height) {
+        StringBuilder hex = new StringBuilder();
+        String previous = null;
+        StringBuilder row = new StringBuilder();
+        int count = 0;
+
+        for(char c : acs.toCharArray()) {
+            if (c >= 'G' && c <= 'Y') {
+                count += c - 'F';
+            } else if (c >= 'g' && c <= 'z') {
+                count += (c - 'f') * 20;
+            } else if (c == ':') {
+                row.append(previous);
+            } else if (c == ',' || c == '!') {
+                while(row.length() < perRow * 2) {
+                    row.append(c == ','? '0':'F');
+                }
+            } else {
+                for(int i = 0; i < Math.max(1, count); i++) {
+                    row.append(c);
+                }
+                count = 0;
+            }
+
+            if (row.length() >= perRow * 2) {
+                if (row.length() > perRow * 2) {
+                    throw new IllegalStateException("Row overflows " + perRow + " bytes");
+                }
+                previous = row.toString();
+                hex.append(previous);
+                row.setLength(0);
+            }
+        }
+        if (hex.length() != perRow * 2 * height) {
+            throw new IllegalStateException("Decoded " + hex.length() / 2 / perRow + " of " + height + " rows");
+        }
+
+        return decodeHex(hex.toString());
+    }
+
+    private static byte[] decodeZ64(String z64) throws Exception {
+        int crcStart = z64.lastIndexOf(':');
+        byte[] encoded = z64.substring(5, crcStart).getBytes(StandardCharsets.US_ASCII);
+        int crc = Integer.parseInt(z64.substring(crcStart + 1), 16);
+        if (crc != crc16(encoded)) {
+            throw new IllegalStateException("Z64 CRC mismatch");
+        }
+
+        Inflater inflater = new Inflater();
+        inflater.setInput(Base64.getDecoder().decode(encoded));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        while(!inflater.finished()) {
+            out.write(buffer, 0, inflater.inflate(buffer));
+        }
+        inflater.end();
+
+        return out.toByteArray();
+    }
+
+    private static int crc16(byte[] bytes) {
+        int crc = 0;
+        for(byte b : bytes) {
+            for(int i = 0; i < 8; i++) {
+                boolean bit = ((b >> (7 - i) & 1) == 1);
+                boolean c15 = ((crc >> 15 & 1) == 1);
+                crc <<= 1;
+                if (c15 ^ bit) { crc ^= 0x1021; }
+            }
+        }
+        return crc & 0xFFFF;
+    }
+
+    private static BufferedImage createBarcodes(int width, int height) {
+        BufferedImage image = createBlank(width, height);
+        Graphics2D g = image.createGraphics();
+        Random random = new Random(height);
+        g.setColor(Color.BLACK);
+        for(int band = 0; band < 4; band++) {
+            for(int x = width / 10; x < width * 9 / 10; x += 2 + random.nextInt(8)) {
+                g.fillRect(x, height * band / 4 + height / 20, 1 + random.nextInt(4), height / 6);
+            }
+        }
+        g.dispose();
+
+        return image;
+    }
+
+    private static BufferedImage createGradient(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, Color.BLACK, width, height, Color.WHITE));
+        g.fillRect(0, 0, width, height);
+        g.dispose();
+
+        return image;
+    }
+
+    private static BufferedImage createBlank(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        g.setColor(Color.BLACK);
+        g.drawString("1 / 1", width / 2, height - 20);
+        g.dispose();
+
+        return image;
+    }
+
+}
@@ -0,0 +1,214 @@
+package qz.printer.status;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs {@link ChangeMultiplexer} against a fake spooler, checking printers are spread over as few threads as their
+ * capacity allows, every change is read even while other printers are busy, and printers are attached, retried
+ * and closed on the thread waiting on them.
+ * <p>
+ * Usage: {@code ChangeMultiplexerTest [printers] [changes]}
+ */
+public class ChangeMultiplexerTest {
+
+    private static final Logger log = LogManager.getLogger(ChangeMultiplexerTest.class);
+
+    private static final String NAME = "fake-spooler";
+    private static final int CAPACITY = 63;
+
+    public static void main(String... args) throws Exception {
+        int printerCount = args.length > 0? Integer.parseInt(args[0]):200;
+        int changes = args.length > 1? Integer.parseInt(args[1]):500;
+
+        FakeSpooler spooler = new FakeSpooler();
+        ChangeMultiplexer<FakePrinter> multiplexer = new ChangeMultiplexer<>(NAME, CAPACITY, () -> new FakeWaiter(spooler));
+
+        List<FakePrinter> printers = new ArrayList<>();
+        for(int i = 0; i < printerCount; i++) {
+            FakePrinter printer = new FakePrinter(spooler, i == 1);
+            printers.add(printer);
+            multiplexer.add(printer);
+        }
+        check(multiplexer.getThreadCount() == (printerCount + CAPACITY - 1) / CAPACITY, "Expected " + (printerCount + CAPACITY - 1) / CAPACITY + " threads, got " + multiplexer.getThreadCount());
+
+        // printer 0 never stops changing, which mustn't keep the others from being read
+        FakePrinter busy = printers.get(0);
+        Thread busyThread = new Thread(() -> {
+            while(!Thread.currentThread().isInterrupted()) { busy.change(); }
+        });
+        busyThread.start();
+
+        long start = System.nanoTime();
+        ExecutorService producers = Executors.newFixedThreadPool(8);
+        for(int p = 1; p < printers.size(); p++) {
+            FakePrinter printer = printers.get(p);
+            producers.submit(() -> {
+                for(int c = 0; c < changes; c++) { printer.change(); }
+            });
+        }
+        producers.shutdown();
+        producers.awaitTermination(30, TimeUnit.SECONDS);
+
+        for(int p = 1; p < printers.size(); p++) {
+            printers.get(p).awaitRead(changes, 10000);
+        }
+        long elapsed = System.nanoTime() - start;
+        busyThread.interrupt();
+        busyThread.join();
+
+        // printer 1 failed reading once, so it was attached again after a pause
+        printers.get(1).awaitAttached(2, 5000);
+
+        for(int p = printers.size() - 1; p >= CAPACITY; p--) {
+            multiplexer.remove(printers.get(p));
+        }
+        for(int p = printers.size() - 1; p >= CAPACITY; p--) {
+            printers.get(p).awaitClosed(5000);
+        }
+        check(multiplexer.getThreadCount() == 1, "Expected 1 thread once printers were removed, got " + multiplexer.getThreadCount());
+
+        multiplexer.close();
+        for(FakePrinter printer : printers) {
+            printer.awaitClosed(5000);
+            check(printer.closedBy.startsWith(NAME), "Printer closed on " + printer.closedBy + " instead of the thread waiting on it");
+        }
+
+        log.info("{} printers read {} changes each on {} threads in {} ms, with one printer changing constantly ({} changes)",
+                 printerCount - 1, changes, (printerCount + CAPACITY - 1) / CAPACITY, String.format("%.1f", elapsed / 1e6), busy.read.get());
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) { throw new IllegalStateException(message); }
+    }
+
+    /**
+     * Stands in for the spooler, signalling waiters whenever a printer changes
+     */
+    private static class FakeSpooler {
+        private final Object lock = new Object();
+    }
+
+    private static class FakePrinter implements ChangeMultiplexer.Source {
+        private final FakeSpooler spooler;
+        private final AtomicLong pending = new AtomicLong();
+        private final AtomicLong read = new AtomicLong();
+        private final AtomicInteger attached = new AtomicInteger();
+        private boolean failOnce;
+        private volatile String closedBy;
+
+        FakePrinter(FakeSpooler spooler, boolean failOnce) {
+            this.spooler = spooler;
+            this.failOnce = failOnce;
+        }
+
+        void change() {
+            pending.incrementAndGet();
+            synchronized(spooler.lock) {
+                spooler.lock.notifyAll();
+            }
+        }
+
+        boolean isSignalled() {
+            return pending.get() > 0;
+        }
+
+        @Override
+        public boolean attach() {
+            attached.incrementAndGet();
+            return true;
+        }
+
+        @Override
+        public boolean ingestChange() {
+            // like a change notification, every change since the last read is read at once
+            read.addAndGet(pending.getAndSet(0));
+            if (failOnce) {
+                failOnce = false;
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void close() {
+            closedBy = Thread.currentThread().getName();
+        }
+
+        void awaitRead(long count, long timeout) throws InterruptedException {
+            long end = System.currentTimeMillis() + timeout;
+            while(read.get() < count) {
+                check(System.currentTimeMillis() < end, "Only read " + read.get() + " of " + count + " changes");
+                Thread.sleep(5);
+            }
+        }
+
+        void awaitAttached(int count, long timeout) throws InterruptedException {
+            long end = System.currentTimeMillis() + timeout;
+            while(attached.get() < count) {
+                check(System.currentTimeMillis() < end, "Printer was only attached " + attached.get() + " times");
+                Thread.sleep(5);
+            }
+        }
+
+        void awaitClosed(long timeout) throws InterruptedException {
+            long end = System.currentTimeMillis() + timeout;
+            while(closedBy == null) {
+                check(System.currentTimeMillis() < end, "Printer was never closed");
+                Thread.sleep(5);
+            }
+        }
+    }
+
+    /**
+     * Reports the first signalled printer, like {@code WaitForMultipleObjects}
+     */
+    private static class FakeWaiter implements ChangeMultiplexer.Waiter<FakePrinter> {
+        private final FakeSpooler spooler;
+        private boolean woken;
+
+        FakeWaiter(FakeSpooler spooler) {
+            this.spooler = spooler;
+        }
+
+        @Override
+        public int await(List<FakePrinter> sources, long timeout) throws InterruptedException {
+            long end = timeout < 0? Long.MAX_VALUE:System.currentTimeMillis() + timeout;
+            synchronized(spooler.lock) {
+                while(true) {
+                    if (woken) {
+                        woken = false;
+                        return -1;
+                    }
+                    for(int i = 0; i < sources.size(); i++) {
+                        if (sources.get(i).isSignalled()) { return i; }
+                    }
+
+                    long remaining = end - System.currentTimeMillis();
+                    if (remaining <= 0) { return -1; }
+                    spooler.lock.wait(Math.min(remaining, 100));
+                }
+            }
+        }
+
+        @Override
+        public void wake() {
+            synchronized(spooler.lock) {
+                woken = true;
+                spooler.lock.notifyAll();
+            }
+        }
+
+        @Override
+        public void close() {}
+    }
+
+}